@@ -1,43 +1,94 @@
 package com.example.jialechatweb.chat;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
 
+/**
+ * Masks sensitive words in chat messages with a {@link SensitiveWordMatcher} built once per
+ * word list, so filtering is a single pass over the message however large the dictionary is.
+ * <p>
+ * If {@code chat.filter.words-file} is set, words are read from that file (one per line, blank
+ * lines and {@code #} comments ignored) and reloaded when the file changes; otherwise the
+ * built-in list is used. A failed reload keeps the previous matcher.
+ */
 @Service
 public class ContentFilterService {
+    private static final Logger log = LoggerFactory.getLogger(ContentFilterService.class);
 
     // Simple list of sensitive words for demonstration
     private static final List<String> SENSITIVE_WORDS = Arrays.asList(
             "暴力", "色情", "赌博", "毒品", "炸弹", "恐怖", "傻逼", "弱智"
     );
 
+    private final Path wordsFile;
+    private volatile SensitiveWordMatcher matcher;
+    private volatile long loadedModified = Long.MIN_VALUE;
+
+    public ContentFilterService(@Value("${chat.filter.words-file:}") String wordsFile) {
+        this.wordsFile = wordsFile == null || wordsFile.isBlank() ? null : Path.of(wordsFile.trim());
+        this.matcher = SensitiveWordMatcher.build(SENSITIVE_WORDS);
+        reload();
+    }
+
     public String filter(String content) {
-        if (content == null || content.isEmpty()) {
-            return content;
+        return matcher.mask(content);
+    }
+
+    public boolean containsSensitive(String content) {
+        return matcher.matches(content);
+    }
+
+    public int wordCount() {
+        return matcher.wordCount();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.filter.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        if (wordsFile == null) {
+            return;
         }
-        
-        String filtered = content;
-        for (String word : SENSITIVE_WORDS) {
-            if (filtered.contains(word)) {
-                String replacement = "*".repeat(word.length());
-                filtered = filtered.replace(word, replacement);
+        try {
+            if (Files.getLastModifiedTime(wordsFile).toMillis() != loadedModified) {
+                reload();
             }
+        } catch (IOException e) {
+            log.warn("Cannot stat sensitive word file {}: {}", wordsFile, e.getMessage());
         }
-        return filtered;
     }
 
-    public boolean containsSensitive(String content) {
-        if (content == null || content.isEmpty()) {
-            return false;
+    /**
+     * Rebuilds the matcher from the word file. Messages in flight keep using the old matcher.
+     */
+    public synchronized void reload() {
+        if (wordsFile == null) {
+            return;
         }
-        for (String word : SENSITIVE_WORDS) {
-            if (content.contains(word)) {
-                return true;
+        try {
+            long modified = Files.getLastModifiedTime(wordsFile).toMillis();
+            List<String> words = new ArrayList<>();
+            for (String line : Files.readAllLines(wordsFile, StandardCharsets.UTF_8)) {
+                String word = line.strip();
+                if (!word.isEmpty() && !word.startsWith("#")) {
+                    words.add(word);
+                }
             }
+            matcher = SensitiveWordMatcher.build(words);
+            loadedModified = modified;
+            log.info("Loaded {} sensitive words from {}", matcher.wordCount(), wordsFile);
+        } catch (IOException e) {
+            log.warn("Failed to load sensitive word file {}, keeping {} words: {}",
+                    wordsFile, matcher.wordCount(), e.getMessage());
         }
-        return false;
     }
 }
@@ -0,0 +1,16 @@
+package com.example.jialechatweb.chat;
+
+/**
+ * Derives the id shared by both sides of a one-to-one conversation: the smaller user id in the
+ * high 32 bits and the larger in the low 32 bits, so (a, b) and (b, a) map to the same value.
+ */
+public final class ConversationIds {
+    private ConversationIds() {
+    }
+
+    public static long of(long userA, long userB) {
+        long min = Math.min(userA, userB);
+        long max = Math.max(userA, userB);
+        return (min << 32) | (max & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.jialechatweb.chat;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process {@link UnreadCounters} for single-node setups without Redis.
+ */
+class LocalUnreadCounters implements UnreadCounters {
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, Long>> byUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> groupSeq = new ConcurrentHashMap<>();
+
+    @Override
+    public void incrementPeer(long userId, long peerId) {
+        hash(userId).merge(PEER_PREFIX + peerId, 1L, Long::sum);
+    }
+
+    @Override
+    public void resetPeer(long userId, long peerId) {
+        Map<String, Long> h = byUser.get(userId);
+        if (h != null) {
+            h.remove(PEER_PREFIX + peerId);
+        }
+    }
+
+    @Override
+    public void setPeer(long userId, long peerId, long count) {
+        if (count > 0) {
+            hash(userId).put(PEER_PREFIX + peerId, count);
+        } else {
+            resetPeer(userId, peerId);
+        }
+    }
+
+    @Override
+    public void replacePeers(long userId, Map<Long, Long> counts) {
+        ConcurrentHashMap<String, Long> h = hash(userId);
+        h.keySet().removeIf(k -> k.startsWith(PEER_PREFIX));
+        counts.forEach((peerId, n) -> h.put(PEER_PREFIX + peerId, n));
+    }
+
+    @Override
+    public long nextGroupSeq(long groupId) {
+        return groupSeq.merge(groupId, 1L, Long::sum);
+    }
+
+    @Override
+    public void markGroupSeen(long userId, long groupId) {
+        ConcurrentHashMap<String, Long> h = hash(userId);
+        // Inside the sequence's compute, so a concurrent nextGroupSeq lands before or after, never between
+        groupSeq.compute(groupId, (id, seq) -> {
+            h.put(GROUP_PREFIX + groupId, seq == null ? 0L : seq);
+            return seq;
+        });
+    }
+
+    @Override
+    public void forgetGroup(long userId, long groupId) {
+        Map<String, Long> h = byUser.get(userId);
+        if (h != null) {
+            h.remove(GROUP_PREFIX + groupId);
+        }
+    }
+
+    @Override
+    public Map<String, String> fields(long userId) {
+        Map<String, String> res = new HashMap<>();
+        Map<String, Long> h = byUser.get(userId);
+        if (h != null) {
+            h.forEach((k, v) -> res.put(k, String.valueOf(v)));
+        }
+        return res;
+    }
+
+    @Override
+    public Map<Long, Long> groupSeqs(Collection<Long> groupIds) {
+        Map<Long, Long> res = new HashMap<>();
+        for (Long groupId : groupIds) {
+            res.put(groupId, groupSeq.getOrDefault(groupId, 0L));
+        }
+        return res;
+    }
+
+    private ConcurrentHashMap<String, Long> hash(long userId) {
+        return byUser.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+    }
+}
@@ -1,25 +1,38 @@
 package com.example.jialechatweb.chat;
 
-import com.example.jialechatweb.oss.OssService;
+import com.example.jialechatweb.oss.SignedUrlCache;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/messages")
 public class MessageController {
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final MessageMapper messageMapper;
-    private final OssService ossService;
+    private final SignedUrlCache signedUrls;
+    private final MessageTailCache tailCache;
+    private final ReadReceiptService readReceiptService;
+    private final UnreadCounterService unreadCounterService;
 
-    public MessageController(MessageMapper messageMapper, OssService ossService) {
+    public MessageController(MessageMapper messageMapper, SignedUrlCache signedUrls, MessageTailCache tailCache,
+                             ReadReceiptService readReceiptService, UnreadCounterService unreadCounterService) {
         this.messageMapper = messageMapper;
-        this.ossService = ossService;
+        this.signedUrls = signedUrls;
+        this.tailCache = tailCache;
+        this.readReceiptService = readReceiptService;
+        this.unreadCounterService = unreadCounterService;
     }
 
     @GetMapping
@@ -30,16 +43,19 @@ public class MessageController {
                                   @RequestAttribute("currentUserId") Long userId) {
         List<ChatMessage> messages;
         if (groupId != null) {
-            messages = messageMapper.listGroupMessages(groupId, limit, offset);
+            messages = offset == 0
+                    ? tailCache.groupHead(groupId, limit)
+                    : messageMapper.listGroupMessages(groupId, limit, offset);
             messages.forEach(msg -> {
                 if (msg.getSenderAvatar() != null) {
-                    msg.setSenderAvatar(ossService.generateSignedUrl(msg.getSenderAvatar()));
+                    msg.setSenderAvatar(signedUrls.sign(msg.getSenderAvatar()));
                 }
             });
         } else if (friendId != null) {
-            // Mark messages as read
-            messageMapper.markReadP2P(userId, friendId);
-            messages = messageMapper.listP2P(userId, friendId, limit, offset);
+            long conversationId = ConversationIds.of(userId, friendId);
+            messages = offset == 0
+                    ? tailCache.conversationHead(conversationId, limit)
+                    : messageMapper.listP2P(conversationId, limit, offset);
         } else {
             return ResponseEntity.badRequest().body("friendId or groupId is required");
         }
@@ -48,4 +64,74 @@ public class MessageController {
         Collections.reverse(messages);
         return ResponseEntity.ok(messages);
     }
+
+    /**
+     * Cursor-based history. {@code before} is the id of the oldest message the client already
+     * has (omit it for the latest page); the response's {@code nextCursor} is passed back as
+     * {@code before} to scroll further. Snowflake ids are time-ordered, so every page is an
+     * index seek and page 500 costs the same as page 1.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<?> history(@RequestParam(required = false) Long friendId,
+                                     @RequestParam(required = false) Long groupId,
+                                     @RequestParam(required = false) Long before,
+                                     @RequestParam(defaultValue = "50") int limit,
+                                     @RequestAttribute("currentUserId") Long userId) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<ChatMessage> messages;
+        // Fetch one extra row to learn whether an older page exists
+        if (groupId != null) {
+            messages = before == null
+                    ? tailCache.groupHead(groupId, pageSize + 1)
+                    : messageMapper.listGroupBefore(groupId, before, pageSize + 1);
+        } else if (friendId != null) {
+            long conversationId = ConversationIds.of(userId, friendId);
+            messages = before == null
+                    ? tailCache.conversationHead(conversationId, pageSize + 1)
+                    : messageMapper.listConversationBefore(conversationId, before, pageSize + 1);
+        } else {
+            return ResponseEntity.badRequest().body(Map.of("error", "friendId or groupId is required"));
+        }
+
+        boolean hasMore = messages.size() > pageSize;
+        List<ChatMessage> items = new ArrayList<>(hasMore ? messages.subList(0, pageSize) : messages);
+        if (groupId != null) {
+            items.forEach(msg -> {
+                if (msg.getSenderAvatar() != null) {
+                    msg.setSenderAvatar(signedUrls.sign(msg.getSenderAvatar()));
+                }
+            });
+        }
+        String nextCursor = hasMore ? String.valueOf(items.get(items.size() - 1).getId()) : null;
+        Collections.reverse(items);
+
+        Map<String, Object> res = new HashMap<>();
+        res.put("items", items);
+        res.put("nextCursor", nextCursor);
+        res.put("hasMore", hasMore);
+        if (friendId != null && groupId == null) {
+            // How far the friend has read my messages; read state is tracked as a watermark, not per row
+            Long peerReadId = readReceiptService.lastReadId(friendId, userId);
+            res.put("peerReadId", peerReadId == null ? null : String.valueOf(peerReadId));
+        }
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/unread")
+    public Map<String, Object> unread(@RequestAttribute("currentUserId") Long userId) {
+        return unreadCounterService.badges(userId);
+    }
+
+    /**
+     * Drift repair: recount the caller's one-to-one badges from MySQL.
+     */
+    @PostMapping("/unread/rebuild")
+    public Map<String, Object> rebuildUnread(@RequestAttribute("currentUserId") Long userId) {
+        return unreadCounterService.rebuild(userId);
+    }
+
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        return tailCache.stats();
+    }
 }
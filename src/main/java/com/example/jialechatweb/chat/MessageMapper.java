@@ -2,6 +2,7 @@ package com.example.jialechatweb.chat;
 
 import org.apache.ibatis.annotations.*;
 
+import java.util.Collection;
 import java.util.List;
 
 @Mapper
@@ -16,6 +17,14 @@ public interface MessageMapper {
         """)
     int insert(ChatMessage msg);
 
+    @Insert({"<script>",
+        "INSERT INTO messages(id, conversation_id, group_id, sender_id, receiver_id, content, content_type, is_read, created_at) VALUES",
+        "<foreach collection='list' item='m' separator=','>",
+        "(#{m.id}, #{m.conversationId}, #{m.groupId}, #{m.senderId}, #{m.receiverId}, #{m.content}, #{m.contentType}, #{m.isRead}, #{m.createdAt})",
+        "</foreach>",
+        "</script>"})
+    int insertBatch(@Param("list") List<ChatMessage> messages);
+
     @Select("""
         SELECT m.id, m.conversation_id AS conversationId, m.group_id AS groupId, m.sender_id AS senderId, m.receiver_id AS receiverId,
                m.content, m.content_type AS contentType, m.is_read AS isRead, m.created_at AS createdAt,
@@ -23,7 +32,7 @@ public interface MessageMapper {
         FROM messages m
         LEFT JOIN users u ON m.sender_id = u.id
         WHERE m.group_id = #{groupId}
-        ORDER BY m.created_at DESC
+        ORDER BY m.id DESC
         LIMIT #{limit} OFFSET #{offset}
         """)
     List<ChatMessage> listGroupMessages(@Param("groupId") Long groupId, @Param("limit") int limit, @Param("offset") int offset);
@@ -32,13 +41,89 @@ public interface MessageMapper {
         SELECT id, conversation_id AS conversationId, group_id AS groupId, sender_id AS senderId, receiver_id AS receiverId,
                content, content_type AS contentType, is_read AS isRead, created_at AS createdAt
         FROM messages
-        WHERE (sender_id = #{userId} AND receiver_id = #{friendId})
-           OR (sender_id = #{friendId} AND receiver_id = #{userId})
-        ORDER BY created_at DESC
+        WHERE conversation_id = #{conversationId}
+        ORDER BY id DESC
         LIMIT #{limit} OFFSET #{offset}
         """)
-    List<ChatMessage> listP2P(@Param("userId") Long userId, @Param("friendId") Long friendId, @Param("limit") int limit, @Param("offset") int offset);
+    List<ChatMessage> listP2P(@Param("conversationId") Long conversationId, @Param("limit") int limit, @Param("offset") int offset);
+
+    /**
+     * Keyset page of a group's history: newest first, strictly older than {@code beforeId}
+     * (or from the latest message when null). Seeks on idx_group_id instead of skipping rows.
+     */
+    @Select("""
+        <script>
+        SELECT m.id, m.conversation_id AS conversationId, m.group_id AS groupId, m.sender_id AS senderId, m.receiver_id AS receiverId,
+               m.content, m.content_type AS contentType, m.is_read AS isRead, m.created_at AS createdAt,
+               u.display_name AS senderName, u.avatar_url AS senderAvatar
+        FROM messages m
+        LEFT JOIN users u ON m.sender_id = u.id
+        WHERE m.group_id = #{groupId}
+        <if test="beforeId != null">AND m.id &lt; #{beforeId}</if>
+        ORDER BY m.id DESC
+        LIMIT #{limit}
+        </script>
+        """)
+    List<ChatMessage> listGroupBefore(@Param("groupId") Long groupId, @Param("beforeId") Long beforeId, @Param("limit") int limit);
+
+    /**
+     * Keyset page of a one-to-one conversation, seeking on idx_conv_id.
+     */
+    @Select("""
+        <script>
+        SELECT id, conversation_id AS conversationId, group_id AS groupId, sender_id AS senderId, receiver_id AS receiverId,
+               content, content_type AS contentType, is_read AS isRead, created_at AS createdAt
+        FROM messages
+        WHERE conversation_id = #{conversationId}
+        <if test="beforeId != null">AND id &lt; #{beforeId}</if>
+        ORDER BY id DESC
+        LIMIT #{limit}
+        </script>
+        """)
+    List<ChatMessage> listConversationBefore(@Param("conversationId") Long conversationId, @Param("beforeId") Long beforeId, @Param("limit") int limit);
+
+    /**
+     * Newest message of each of the given one-to-one conversations (those without messages are
+     * absent). The inner MAX(id) per conversation_id is answered from idx_conv_id alone.
+     */
+    @Options(useCache = false)
+    @Select("""
+        <script>
+        SELECT id, conversation_id AS conversationId, group_id AS groupId, sender_id AS senderId, receiver_id AS receiverId,
+               content, content_type AS contentType, is_read AS isRead, created_at AS createdAt
+        FROM messages
+        WHERE id IN (
+            SELECT MAX(id) FROM messages
+            WHERE conversation_id IN
+            <foreach collection="conversationIds" item="c" open="(" separator="," close=")">#{c}</foreach>
+            GROUP BY conversation_id)
+        </script>
+        """)
+    List<ChatMessage> latestOfConversations(@Param("conversationIds") Collection<Long> conversationIds);
+
+    /**
+     * Messages {@code peerId} sent in a one-to-one conversation after {@code afterId}; a range
+     * scan on idx_conv_id.
+     */
+    @Options(useCache = false)
+    @Select("""
+        SELECT COUNT(*) FROM messages
+        WHERE conversation_id = #{conversationId} AND id > #{afterId} AND sender_id = #{peerId}
+        """)
+    long countFromPeerAfter(@Param("conversationId") Long conversationId, @Param("peerId") Long peerId, @Param("afterId") Long afterId);
 
-    @Update("UPDATE messages SET is_read = 1 WHERE receiver_id = #{userId} AND sender_id = #{friendId}")
-    int markReadP2P(@Param("userId") Long userId, @Param("friendId") Long friendId);
+    /**
+     * Per-sender unread counts for one receiver, for rebuilding badges. A read watermark wins
+     * when present; conversations without one fall back to the legacy is_read flag.
+     */
+    @Options(useCache = false)
+    @Select("""
+        SELECT m.sender_id AS peerId, COUNT(*) AS unread
+        FROM messages m
+        LEFT JOIN read_watermarks w ON w.user_id = m.receiver_id AND w.peer_id = m.sender_id
+        WHERE m.receiver_id = #{userId} AND m.group_id IS NULL
+          AND ((w.last_read_id IS NULL AND m.is_read = 0) OR m.id > w.last_read_id)
+        GROUP BY m.sender_id
+        """)
+    List<UnreadCount> countUnreadBySender(@Param("userId") Long userId);
 }
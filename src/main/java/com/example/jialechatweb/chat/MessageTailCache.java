@@ -0,0 +1,304 @@
+package com.example.jialechatweb.chat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the newest {@code size} messages of recently active conversations and groups so that
+ * opening a chat (the first history page) does not hit MySQL.
+ * <p>
+ * A tail is registered before it is seeded from the database, so messages persisted while the
+ * seed query runs are appended to it and merged by id rather than lost. Only persisted messages
+ * are appended. Tails live in an access-ordered map capped at {@code max-conversations}, which
+ * bounds memory to roughly max-conversations x size messages. Entries are copied on the way in
+ * and out because callers mutate what they get (e.g. signing avatar URLs).
+ * <p>
+ * With several nodes, messages sent through another node are appended when their routed frame
+ * reaches this one, but a node only receives frames for users and groups it serves. A tail is
+ * therefore reseeded once it is older than {@code ttl-seconds}, which bounds how stale a first
+ * page can be (0 keeps tails until they are evicted, which suits a single node).
+ */
+@Component
+public class MessageTailCache {
+    private final MessageMapper messageMapper;
+    private final int size;
+    private final int maxConversations;
+    private final long ttlNanos;
+    private final Map<TailKey, Tail> tails;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public MessageTailCache(MessageMapper messageMapper,
+                            @Value("${chat.cache.tail.size:64}") int size,
+                            @Value("${chat.cache.tail.max-conversations:10000}") int maxConversations,
+                            @Value("${chat.cache.tail.ttl-seconds:10}") long ttlSeconds) {
+        this.messageMapper = messageMapper;
+        this.size = Math.max(1, size);
+        this.maxConversations = Math.max(1, maxConversations);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+        this.tails = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TailKey, Tail> eldest) {
+                if (size() > MessageTailCache.this.maxConversations) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Newest-first group messages, at most {@code rows}; the same result as
+     * {@link MessageMapper#listGroupBefore} with no cursor.
+     */
+    public List<ChatMessage> groupHead(long groupId, int rows) {
+        if (rows > size) {
+            misses.increment();
+            return messageMapper.listGroupBefore(groupId, null, rows);
+        }
+        return head(new TailKey(true, groupId), rows);
+    }
+
+    /**
+     * Newest-first messages of a one-to-one conversation, at most {@code rows}.
+     */
+    public List<ChatMessage> conversationHead(long conversationId, int rows) {
+        if (rows > size) {
+            misses.increment();
+            return messageMapper.listConversationBefore(conversationId, null, rows);
+        }
+        return head(new TailKey(false, conversationId), rows);
+    }
+
+    /**
+     * Newest message of each one-to-one conversation that has any, keyed by conversation id.
+     * Conversations with a seeded tail are answered from memory; the rest share one query. The
+     * query result does not seed tails, since a single message says nothing about the rest.
+     */
+    public Map<Long, ChatMessage> latestOfConversations(Collection<Long> conversationIds) {
+        Map<Long, ChatMessage> res = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Long conversationId : conversationIds) {
+            Tail tail;
+            synchronized (tails) {
+                tail = tails.get(new TailKey(false, conversationId));
+            }
+            if (tail == null || tail.isStale(now, ttlNanos) || !tail.newestInto(conversationId, res)) {
+                missing.add(conversationId);
+            }
+        }
+        hits.add(conversationIds.size() - missing.size());
+        if (!missing.isEmpty()) {
+            misses.add(missing.size());
+            for (ChatMessage m : messageMapper.latestOfConversations(missing)) {
+                res.put(m.getConversationId(), m);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Whether the conversation ({@code groupId} null) or group has a tail that {@link #append}
+     * would add to; lets callers skip building a message for conversations nobody has open.
+     */
+    public boolean tracks(Long groupId, Long conversationId) {
+        TailKey key = groupId != null ? new TailKey(true, groupId)
+                : conversationId != null ? new TailKey(false, conversationId) : null;
+        if (key == null) {
+            return false;
+        }
+        synchronized (tails) {
+            return tails.containsKey(key);
+        }
+    }
+
+    /**
+     * Records a message that has been persisted. Conversations nobody has opened recently are
+     * skipped; they are seeded from the database on first read. Appending a message twice
+     * (e.g. once locally and once from the bus) keeps one copy.
+     */
+    public void append(ChatMessage msg) {
+        TailKey key = keyOf(msg);
+        if (key == null) {
+            return;
+        }
+        Tail tail;
+        synchronized (tails) {
+            tail = tails.get(key);
+        }
+        if (tail != null) {
+            tail.add(copy(msg), size);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> res = new HashMap<>();
+        res.put("hits", h);
+        res.put("misses", m);
+        res.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        res.put("evictions", evictions.sum());
+        synchronized (tails) {
+            res.put("conversations", tails.size());
+        }
+        res.put("maxConversations", maxConversations);
+        res.put("tailSize", size);
+        return res;
+    }
+
+    private List<ChatMessage> head(TailKey key, int rows) {
+        Tail tail;
+        synchronized (tails) {
+            tail = tails.get(key);
+            if (tail == null || tail.isStale(System.nanoTime(), ttlNanos)) {
+                // A fresh tail is registered before seeding, like the first one
+                tail = new Tail();
+                tails.put(key, tail);
+            }
+        }
+        List<ChatMessage> cached = tail.head(rows);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        List<ChatMessage> loaded = key.group
+                ? messageMapper.listGroupBefore(key.id, null, size)
+                : messageMapper.listConversationBefore(key.id, null, size);
+        tail.seed(loaded, size);
+        List<ChatMessage> res = tail.head(rows);
+        return res != null ? res : copyFirst(loaded, rows);
+    }
+
+    private static TailKey keyOf(ChatMessage msg) {
+        if (msg.getGroupId() != null) {
+            return new TailKey(true, msg.getGroupId());
+        }
+        if (msg.getConversationId() != null) {
+            return new TailKey(false, msg.getConversationId());
+        }
+        return null;
+    }
+
+    private static List<ChatMessage> copyFirst(List<ChatMessage> messages, int rows) {
+        List<ChatMessage> res = new ArrayList<>(Math.min(rows, messages.size()));
+        for (int i = 0; i < messages.size() && i < rows; i++) {
+            res.add(copy(messages.get(i)));
+        }
+        return res;
+    }
+
+    static ChatMessage copy(ChatMessage src) {
+        ChatMessage m = new ChatMessage();
+        m.setId(src.getId());
+        m.setConversationId(src.getConversationId());
+        m.setGroupId(src.getGroupId());
+        m.setSenderId(src.getSenderId());
+        m.setReceiverId(src.getReceiverId());
+        m.setContent(src.getContent());
+        m.setContentType(src.getContentType());
+        m.setIsRead(src.getIsRead());
+        m.setCreatedAt(src.getCreatedAt());
+        m.setSenderName(src.getSenderName());
+        m.setSenderAvatar(src.getSenderAvatar());
+        return m;
+    }
+
+    private record TailKey(boolean group, long id) {}
+
+    /**
+     * Messages of one conversation, oldest first, sorted by id.
+     */
+    private static final class Tail {
+        private final ArrayList<ChatMessage> messages = new ArrayList<>();
+        private boolean seeded;
+        private long seededAt;
+        // True while the tail holds every message of the conversation, so short results are final
+        private boolean exhaustive;
+
+        synchronized List<ChatMessage> head(int rows) {
+            if (!seeded || (messages.size() < rows && !exhaustive)) {
+                return null;
+            }
+            int n = Math.min(rows, messages.size());
+            List<ChatMessage> res = new ArrayList<>(n);
+            for (int i = messages.size() - 1; i >= messages.size() - n; i--) {
+                res.add(copy(messages.get(i)));
+            }
+            return res;
+        }
+
+        /**
+         * Puts a copy of the newest message into {@code out}, if any; false if not seeded yet.
+         */
+        synchronized boolean newestInto(long conversationId, Map<Long, ChatMessage> out) {
+            if (!seeded) {
+                return false;
+            }
+            if (!messages.isEmpty()) {
+                out.put(conversationId, copy(messages.get(messages.size() - 1)));
+            }
+            return true;
+        }
+
+        synchronized void seed(List<ChatMessage> newestFirst, int capacity) {
+            if (seeded) {
+                return;
+            }
+            for (ChatMessage m : newestFirst) {
+                insert(copy(m));
+            }
+            exhaustive = newestFirst.size() < capacity;
+            trim(capacity);
+            seededAt = System.nanoTime();
+            seeded = true;
+        }
+
+        /**
+         * True once a seeded tail is older than {@code ttlNanos}; never for a zero TTL.
+         */
+        synchronized boolean isStale(long now, long ttlNanos) {
+            return ttlNanos > 0 && seeded && now - seededAt > ttlNanos;
+        }
+
+        synchronized void add(ChatMessage msg, int capacity) {
+            insert(msg);
+            trim(capacity);
+        }
+
+        private void insert(ChatMessage msg) {
+            long id = msg.getId();
+            int i = messages.size();
+            // New messages almost always belong at the end; walk back for the rare reordering
+            while (i > 0 && messages.get(i - 1).getId() > id) {
+                i--;
+            }
+            if (i > 0 && messages.get(i - 1).getId() == id) {
+                return;
+            }
+            messages.add(i, msg);
+        }
+
+        private void trim(int capacity) {
+            int excess = messages.size() - capacity;
+            if (excess > 0) {
+                messages.subList(0, excess).clear();
+                exhaustive = false;
+            }
+        }
+    }
+}
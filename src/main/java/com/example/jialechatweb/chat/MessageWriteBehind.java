@@ -0,0 +1,238 @@
+package com.example.jialechatweb.chat;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for chat messages.
+ * <p>
+ * Senders enqueue rows into a bounded queue; a single flusher thread groups them into one
+ * multi-row INSERT every {@code flush-interval-ms} or {@code batch-size} rows, whichever comes
+ * first. Futures complete on {@code callback-threads} separate lanes, so fan-out work done by
+ * callers never holds up the next flush. Each conversation or group always uses the same lane,
+ * which keeps its messages completing in queue order while busy chats run side by side.
+ * <ul>
+ *   <li>{@code ack-mode: flush} - callers should ACK once the future completes (row is in MySQL).</li>
+ *   <li>{@code ack-mode: enqueue} - callers may ACK right away; a crash can lose the last batch.</li>
+ * </ul>
+ * When the queue is full, {@link #submit} waits up to {@code enqueue-timeout-ms} and then rejects,
+ * pushing back on the sender instead of growing memory without bound.
+ */
+@Component
+public class MessageWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private final MessageMapper messageMapper;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long enqueueTimeoutMillis;
+    private final boolean ackAfterFlush;
+    private final ExecutorService[] completions;
+    private Thread flusher;
+    private volatile boolean running = true;
+
+    public MessageWriteBehind(MessageMapper messageMapper,
+                              @Value("${chat.persist.queue-capacity:10000}") int queueCapacity,
+                              @Value("${chat.persist.batch-size:200}") int batchSize,
+                              @Value("${chat.persist.flush-interval-ms:10}") long flushIntervalMillis,
+                              @Value("${chat.persist.enqueue-timeout-ms:50}") long enqueueTimeoutMillis,
+                              @Value("${chat.persist.ack-mode:flush}") String ackMode,
+                              @Value("${chat.persist.callback-threads:4}") int callbackThreads) {
+        this.messageMapper = messageMapper;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.enqueueTimeoutMillis = Math.max(0, enqueueTimeoutMillis);
+        this.ackAfterFlush = !"enqueue".equals(ackMode.trim().toLowerCase(Locale.ROOT));
+        this.completions = new ExecutorService[Math.max(1, callbackThreads)];
+        for (int i = 0; i < completions.length; i++) {
+            String name = "msg-persist-callback-" + i;
+            completions[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = new Thread(this::runFlusher, "msg-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * True if callers should wait for the returned future before acknowledging a message.
+     */
+    public boolean acksAfterFlush() {
+        return ackAfterFlush;
+    }
+
+    /**
+     * Queues a message for insertion.
+     *
+     * @throws RejectedExecutionException if the queue stays full for the enqueue timeout, or on shutdown
+     */
+    public CompletableFuture<Void> submit(ChatMessage msg) {
+        if (!running) {
+            throw new RejectedExecutionException("Message persistence is shutting down");
+        }
+        Pending pending = new Pending(msg, new CompletableFuture<>());
+        boolean accepted;
+        try {
+            accepted = queue.offer(pending, enqueueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            throw new RejectedExecutionException("Message persistence queue is full");
+        }
+        return pending.future;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (flusher != null) {
+            // No interrupt: the flusher polls every flush interval and would otherwise risk
+            // aborting an in-flight JDBC call
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (ExecutorService lane : completions) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : completions) {
+                lane.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runFlusher() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private void collect(List<Pending> batch) throws InterruptedException {
+        if (!running) {
+            queue.drainTo(batch, batchSize);
+            return;
+        }
+        Pending first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<ChatMessage> rows = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            rows.add(p.msg);
+        }
+        Throwable[] failures = new Throwable[batch.size()];
+        try {
+            messageMapper.insertBatch(rows);
+        } catch (Exception e) {
+            // One bad row should not sink the batch: retry row by row to isolate it
+            log.warn("Batch insert of {} messages failed, retrying individually: {}", rows.size(), e.getMessage());
+            for (int i = 0; i < rows.size(); i++) {
+                try {
+                    messageMapper.insert(rows.get(i));
+                } catch (Exception rowError) {
+                    log.error("Failed to persist message {}", rows.get(i).getId(), rowError);
+                    failures[i] = rowError;
+                }
+            }
+        }
+        // One task per lane, keeping the batch's order within each lane
+        List<List<Integer>> byLane = new ArrayList<>(completions.length);
+        for (int i = 0; i < completions.length; i++) {
+            byLane.add(new ArrayList<>());
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            byLane.get(lane(batch.get(i).msg)).add(i);
+        }
+        for (int l = 0; l < completions.length; l++) {
+            List<Integer> indexes = byLane.get(l);
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            try {
+                completions[l].execute(() -> complete(batch, indexes, failures));
+            } catch (RejectedExecutionException e) {
+                complete(batch, indexes, failures);
+            }
+        }
+    }
+
+    int lane(ChatMessage msg) {
+        Long key = msg.getGroupId() != null ? msg.getGroupId() : msg.getConversationId();
+        return key == null ? 0 : Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), completions.length);
+    }
+
+    private static void complete(List<Pending> batch, List<Integer> indexes, Throwable[] failures) {
+        for (int i : indexes) {
+            if (failures[i] == null) {
+                batch.get(i).future.complete(null);
+            } else {
+                batch.get(i).future.completeExceptionally(failures[i]);
+            }
+        }
+    }
+
+    private record Pending(ChatMessage msg, CompletableFuture<Void> future) {}
+}
@@ -0,0 +1,132 @@
+package com.example.jialechatweb.chat;
+
+import com.example.jialechatweb.ws.ChatWebSocketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read receipts for one-to-one chats.
+ * <p>
+ * Clients report "read up to message X". Reports are coalesced in memory per (reader, peer),
+ * keeping only the highest id, and flushed every {@code flush-interval-ms} as one batched
+ * upsert. After a flush the peer (the author of the messages) gets a {@code read} event, so a
+ * burst of reads costs one row write and one push per conversation per interval. Reported ids
+ * are capped at the conversation's newest message, since the upsert only ever raises a
+ * watermark and an id from the future would hide every message sent after it.
+ */
+@Service
+public class ReadReceiptService {
+    private static final Logger log = LoggerFactory.getLogger(ReadReceiptService.class);
+
+    private final ReadWatermarkMapper readWatermarkMapper;
+    private final MessageTailCache tailCache;
+    private final ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider;
+    private final UnreadCounterService unreadCounterService;
+    private final int batchSize;
+    private final ConcurrentHashMap<ReadKey, Long> pending = new ConcurrentHashMap<>();
+
+    public ReadReceiptService(ReadWatermarkMapper readWatermarkMapper,
+                              MessageTailCache tailCache,
+                              ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider,
+                              UnreadCounterService unreadCounterService,
+                              @Value("${chat.read.batch-size:500}") int batchSize) {
+        this.readWatermarkMapper = readWatermarkMapper;
+        this.tailCache = tailCache;
+        this.chatWebSocketHandlerProvider = chatWebSocketHandlerProvider;
+        this.unreadCounterService = unreadCounterService;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Records that {@code userId} has read every message from {@code peerId} up to {@code messageId},
+     * capped at the newest message of their conversation. Ignored if they have none. The badge is
+     * cleared when that reaches the newest message and recounted from the watermark otherwise.
+     */
+    public void markRead(long userId, long peerId, long messageId) {
+        long conversationId = ConversationIds.of(userId, peerId);
+        ChatMessage latest = tailCache.latestOfConversations(List.of(conversationId)).get(conversationId);
+        if (latest == null) {
+            return;
+        }
+        long reported = Math.min(messageId, latest.getId());
+        pending.merge(new ReadKey(userId, peerId), reported, Math::max);
+        // The badge updates right away; only the watermark row waits for the flush
+        if (reported >= latest.getId()) {
+            unreadCounterService.markPeerRead(userId, peerId);
+            return;
+        }
+        // A receipt for an older message must not clear what arrived after it
+        Long watermark = lastReadId(userId, peerId);
+        if (watermark != null && watermark >= latest.getId()) {
+            unreadCounterService.markPeerRead(userId, peerId);
+        } else {
+            unreadCounterService.recountPeer(userId, peerId, watermark != null ? watermark : reported);
+        }
+    }
+
+    /**
+     * The highest message id {@code userId} has read in the conversation with {@code peerId},
+     * including reports not flushed yet; null if nothing was read.
+     */
+    public Long lastReadId(long userId, long peerId) {
+        Long stored = readWatermarkMapper.findLastReadId(userId, peerId);
+        Long unflushed = pending.get(new ReadKey(userId, peerId));
+        if (stored == null) {
+            return unflushed;
+        }
+        return unflushed == null ? stored : Math.max(stored, unflushed);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.read.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ReadWatermark> drained = new ArrayList<>();
+        for (ReadKey key : pending.keySet()) {
+            Long lastReadId = pending.remove(key);
+            if (lastReadId != null) {
+                drained.add(new ReadWatermark(key.userId, key.peerId, lastReadId));
+            }
+        }
+        for (int from = 0; from < drained.size(); from += batchSize) {
+            List<ReadWatermark> batch = drained.subList(from, Math.min(drained.size(), from + batchSize));
+            try {
+                readWatermarkMapper.upsertBatch(batch);
+            } catch (Exception e) {
+                log.warn("Failed to flush {} read watermarks, retrying next interval: {}", batch.size(), e.getMessage());
+                for (ReadWatermark w : batch) {
+                    pending.merge(new ReadKey(w.getUserId(), w.getPeerId()), w.getLastReadId(), Math::max);
+                }
+                continue;
+            }
+            notifyPeers(batch);
+        }
+    }
+
+    private void notifyPeers(List<ReadWatermark> batch) {
+        ChatWebSocketHandler handler = chatWebSocketHandlerProvider.getIfAvailable();
+        if (handler == null) {
+            return;
+        }
+        for (ReadWatermark w : batch) {
+            handler.broadcast(new ChatWebSocketHandler.Event("read", Map.of(
+                    "conversationId", String.valueOf(ConversationIds.of(w.getUserId(), w.getPeerId())),
+                    "readerId", String.valueOf(w.getUserId()),
+                    "peerId", String.valueOf(w.getPeerId()),
+                    "lastReadId", String.valueOf(w.getLastReadId())
+            )));
+        }
+    }
+
+    private record ReadKey(long userId, long peerId) {}
+}
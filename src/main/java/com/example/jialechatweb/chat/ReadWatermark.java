@@ -0,0 +1,29 @@
+package com.example.jialechatweb.chat;
+
+/**
+ * How far {@code userId} has read the one-to-one conversation with {@code peerId}:
+ * every message up to and including {@code lastReadId}.
+ */
+public class ReadWatermark {
+    private final long userId;
+    private final long peerId;
+    private final long lastReadId;
+
+    public ReadWatermark(long userId, long peerId, long lastReadId) {
+        this.userId = userId;
+        this.peerId = peerId;
+        this.lastReadId = lastReadId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getPeerId() {
+        return peerId;
+    }
+
+    public long getLastReadId() {
+        return lastReadId;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.jialechatweb.chat;
+
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+@Mapper
+public interface ReadWatermarkMapper {
+    /**
+     * Upserts a batch of watermarks. GREATEST keeps a late, lower watermark from moving read state backwards.
+     */
+    @Insert({"<script>",
+        "INSERT INTO read_watermarks(user_id, peer_id, last_read_id, updated_at) VALUES",
+        "<foreach collection='list' item='w' separator=','>",
+        "(#{w.userId}, #{w.peerId}, #{w.lastReadId}, CURRENT_TIMESTAMP)",
+        "</foreach>",
+        "ON DUPLICATE KEY UPDATE last_read_id = GREATEST(last_read_id, VALUES(last_read_id)), updated_at = CURRENT_TIMESTAMP",
+        "</script>"})
+    int upsertBatch(@Param("list") List<ReadWatermark> watermarks);
+
+    @Select("SELECT last_read_id FROM read_watermarks WHERE user_id = #{userId} AND peer_id = #{peerId}")
+    Long findLastReadId(@Param("userId") Long userId, @Param("peerId") Long peerId);
+}
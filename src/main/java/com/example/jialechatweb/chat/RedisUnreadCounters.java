@@ -0,0 +1,128 @@
+package com.example.jialechatweb.chat;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link UnreadCounters} kept in Redis hashes so every node sees the same badges:
+ * {@code unread:<userId>} per user and one {@code group:seq} hash for all group sequences.
+ */
+@Component
+@Profile("!test")
+@ConditionalOnProperty(name = "spring.data.redis.enabled", havingValue = "true", matchIfMissing = false)
+public class RedisUnreadCounters implements UnreadCounters {
+    private static final String GROUP_SEQ_KEY = "group:seq";
+
+    // KEYS: group:seq, unread:<user>; ARGV: group id, seen field. Copies the group's current
+    // sequence into the user's hash in one step, so a message counted in between is not lost.
+    private static final RedisScript<Long> MARK_GROUP_SEEN = new DefaultRedisScript<>("""
+            local seq = redis.call('HGET', KEYS[1], ARGV[1]) or '0'
+            redis.call('HSET', KEYS[2], ARGV[2], seq)
+            return tonumber(seq)
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisUnreadCounters(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void incrementPeer(long userId, long peerId) {
+        hash().increment(key(userId), PEER_PREFIX + peerId, 1);
+    }
+
+    @Override
+    public void resetPeer(long userId, long peerId) {
+        hash().delete(key(userId), PEER_PREFIX + peerId);
+    }
+
+    @Override
+    public void setPeer(long userId, long peerId, long count) {
+        if (count > 0) {
+            hash().put(key(userId), PEER_PREFIX + peerId, String.valueOf(count));
+        } else {
+            resetPeer(userId, peerId);
+        }
+    }
+
+    @Override
+    public void replacePeers(long userId, Map<Long, Long> counts) {
+        String key = key(userId);
+        List<Object> stale = new ArrayList<>();
+        for (Object field : hash().keys(key)) {
+            if (field.toString().startsWith(PEER_PREFIX)) {
+                stale.add(field);
+            }
+        }
+        if (!stale.isEmpty()) {
+            hash().delete(key, stale.toArray());
+        }
+        if (!counts.isEmpty()) {
+            Map<String, String> fresh = new HashMap<>();
+            counts.forEach((peerId, n) -> fresh.put(PEER_PREFIX + peerId, String.valueOf(n)));
+            hash().putAll(key, fresh);
+        }
+    }
+
+    @Override
+    public long nextGroupSeq(long groupId) {
+        return hash().increment(GROUP_SEQ_KEY, String.valueOf(groupId), 1);
+    }
+
+    @Override
+    public void markGroupSeen(long userId, long groupId) {
+        redisTemplate.execute(MARK_GROUP_SEEN, List.of(GROUP_SEQ_KEY, key(userId)),
+                String.valueOf(groupId), GROUP_PREFIX + groupId);
+    }
+
+    @Override
+    public void forgetGroup(long userId, long groupId) {
+        hash().delete(key(userId), GROUP_PREFIX + groupId);
+    }
+
+    @Override
+    public Map<String, String> fields(long userId) {
+        Map<String, String> res = new HashMap<>();
+        hash().entries(key(userId)).forEach((k, v) -> res.put(k.toString(), v.toString()));
+        return res;
+    }
+
+    @Override
+    public Map<Long, Long> groupSeqs(Collection<Long> groupIds) {
+        Map<Long, Long> res = new HashMap<>();
+        if (groupIds.isEmpty()) {
+            return res;
+        }
+        List<Object> fields = new ArrayList<>(groupIds.size());
+        for (Long groupId : groupIds) {
+            fields.add(String.valueOf(groupId));
+        }
+        List<Object> values = hash().multiGet(GROUP_SEQ_KEY, fields);
+        int i = 0;
+        for (Long groupId : groupIds) {
+            Object v = values.get(i++);
+            res.put(groupId, v == null ? 0L : Long.parseLong(v.toString()));
+        }
+        return res;
+    }
+
+    private HashOperations<String, Object, Object> hash() {
+        return redisTemplate.opsForHash();
+    }
+
+    private static String key(long userId) {
+        return "unread:" + userId;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.jialechatweb.chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable Aho-Corasick automaton over UTF-16 chars.
+ * <p>
+ * The trie is built once and compiled into flat arrays: each node's outgoing edges are a
+ * sorted slice of {@code labels}/{@code targets} searched by binary search, except the root,
+ * which has a direct 64K lookup table because most characters of normal text fall back to it.
+ * {@code outLen[n]} is the longest word ending at node n, following dictionary suffix links, so
+ * a single left-to-right pass finds every occurrence of every word.
+ */
+final class SensitiveWordMatcher {
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+    // Buffers grown for an unusually long message are not kept around
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private final int[] rootNext;
+    private final int[] edgeStart;
+    private final int[] edgeCount;
+    private final char[] labels;
+    private final int[] targets;
+    private final int[] fail;
+    private final int[] outLen;
+    private final int wordCount;
+
+    private SensitiveWordMatcher(int[] rootNext, int[] edgeStart, int[] edgeCount, char[] labels, int[] targets,
+                                 int[] fail, int[] outLen, int wordCount) {
+        this.rootNext = rootNext;
+        this.edgeStart = edgeStart;
+        this.edgeCount = edgeCount;
+        this.labels = labels;
+        this.targets = targets;
+        this.fail = fail;
+        this.outLen = outLen;
+        this.wordCount = wordCount;
+    }
+
+    static SensitiveWordMatcher build(Collection<String> words) {
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> termLen = new ArrayList<>();
+        children.add(new HashMap<>());
+        termLen.add(0);
+        int count = 0;
+        for (String word : words) {
+            if (word == null || word.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < word.length(); i++) {
+                Integer next = children.get(node).get(word.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.get(node).put(word.charAt(i), next);
+                    children.add(new HashMap<>());
+                    termLen.add(0);
+                }
+                node = next;
+            }
+            if (termLen.get(node) == 0) {
+                count++;
+            }
+            termLen.set(node, word.length());
+        }
+
+        int n = children.size();
+        int edges = 0;
+        for (Map<Character, Integer> c : children) {
+            edges += c.size();
+        }
+        int[] edgeStart = new int[n];
+        int[] edgeCount = new int[n];
+        char[] labels = new char[edges];
+        int[] targets = new int[edges];
+        int pos = 0;
+        for (int node = 0; node < n; node++) {
+            Map<Character, Integer> c = children.get(node);
+            List<Character> keys = new ArrayList<>(c.keySet());
+            keys.sort(null);
+            edgeStart[node] = pos;
+            edgeCount[node] = keys.size();
+            for (Character ch : keys) {
+                labels[pos] = ch;
+                targets[pos] = c.get(ch);
+                pos++;
+            }
+        }
+        int[] rootNext = new int[Character.MAX_VALUE + 1];
+        children.get(0).forEach((ch, target) -> rootNext[ch] = target);
+
+        int[] fail = new int[n];
+        int[] outLen = new int[n];
+        SensitiveWordMatcher partial = new SensitiveWordMatcher(rootNext, edgeStart, edgeCount, labels, targets,
+                fail, outLen, count);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[0] + edgeCount[0]; e++) {
+            int child = targets[e];
+            outLen[child] = termLen.get(child);
+            queue.add(child);
+        }
+        // Breadth-first, so every failure target is finished before it is used
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int e = edgeStart[node]; e < edgeStart[node] + edgeCount[node]; e++) {
+                char ch = labels[e];
+                int child = targets[e];
+                int f = fail[node];
+                int next;
+                while ((next = partial.step(f, ch)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next > 0 ? next : 0;
+                outLen[child] = Math.max(termLen.get(child), outLen[fail[child]]);
+                queue.add(child);
+            }
+        }
+        return partial;
+    }
+
+    int wordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Replaces every character covered by a word with '*'. Returns {@code text} itself when
+     * nothing matches, so clean messages cost no allocation.
+     */
+    String mask(String text) {
+        if (text == null || text.isEmpty() || wordCount == 0) {
+            return text;
+        }
+        int len = text.length();
+        char[] buf = null;
+        int maskedUpTo = 0;
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            state = advance(state, text.charAt(i));
+            int hit = outLen[state];
+            if (hit > 0) {
+                if (buf == null) {
+                    buf = buffer(len);
+                    text.getChars(0, len, buf, 0);
+                }
+                for (int j = Math.max(i - hit + 1, maskedUpTo); j <= i; j++) {
+                    buf[j] = '*';
+                }
+                maskedUpTo = i + 1;
+            }
+        }
+        return buf == null ? text : new String(buf, 0, len);
+    }
+
+    boolean matches(String text) {
+        if (text == null || text.isEmpty() || wordCount == 0) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = advance(state, text.charAt(i));
+            if (outLen[state] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int advance(int state, char ch) {
+        while (state != 0) {
+            int next = step(state, ch);
+            if (next >= 0) {
+                return next;
+            }
+            state = fail[state];
+        }
+        return rootNext[ch];
+    }
+
+    /**
+     * The child of {@code node} on {@code ch}, or -1. The root never fails: absent edges lead back to it.
+     */
+    private int step(int node, char ch) {
+        if (node == 0) {
+            int next = rootNext[ch];
+            return next == 0 ? -1 : next;
+        }
+        int lo = edgeStart[node];
+        int hi = lo + edgeCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char c = labels[mid];
+            if (c < ch) {
+                lo = mid + 1;
+            } else if (c > ch) {
+                hi = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static char[] buffer(int len) {
+        char[] buf = BUFFER.get();
+        if (buf.length >= len) {
+            return buf;
+        }
+        char[] grown = new char[Math.max(len, buf.length * 2)];
+        if (grown.length <= MAX_RETAINED_BUFFER) {
+            BUFFER.set(grown);
+        }
+        return grown;
+    }
+}
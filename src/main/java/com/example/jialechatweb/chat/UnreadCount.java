@@ -0,0 +1,25 @@
+package com.example.jialechatweb.chat;
+
+/**
+ * Unread messages a user has from one peer, as counted from MySQL when rebuilding badges.
+ */
+public class UnreadCount {
+    private Long peerId;
+    private Long unread;
+
+    public Long getPeerId() {
+        return peerId;
+    }
+
+    public void setPeerId(Long peerId) {
+        this.peerId = peerId;
+    }
+
+    public Long getUnread() {
+        return unread;
+    }
+
+    public void setUnread(Long unread) {
+        this.unread = unread;
+    }
+}
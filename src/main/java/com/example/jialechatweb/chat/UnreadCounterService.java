@@ -0,0 +1,156 @@
+package com.example.jialechatweb.chat;
+
+import com.example.jialechatweb.group.GroupMembershipIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unread badges. One-to-one chats keep a counter per (user, peer) that is bumped on every
+ * message and cleared by a read watermark. Groups keep one message sequence per group and each
+ * reader remembers the sequence they last saw, so unread = current sequence - seen sequence.
+ * Counters live in Redis when it is enabled and in process memory otherwise; counts that have
+ * drifted can be rebuilt from MySQL. A group the user belongs to but has never read (e.g. joined
+ * before group counters existed) is seeded at its current sequence the first time badges are
+ * read, so it counts from then on instead of never showing a badge.
+ */
+@Service
+public class UnreadCounterService {
+    private static final Logger log = LoggerFactory.getLogger(UnreadCounterService.class);
+
+    private final UnreadCounters counters;
+    private final MessageMapper messageMapper;
+    private final GroupMembershipIndex groupMembershipIndex;
+
+    public UnreadCounterService(ObjectProvider<RedisUnreadCounters> redisUnreadCountersProvider,
+                                MessageMapper messageMapper,
+                                GroupMembershipIndex groupMembershipIndex) {
+        UnreadCounters redis = redisUnreadCountersProvider.getIfAvailable();
+        this.counters = redis != null ? redis : new LocalUnreadCounters();
+        this.messageMapper = messageMapper;
+        this.groupMembershipIndex = groupMembershipIndex;
+    }
+
+    /**
+     * Counts a newly sent message for its recipients.
+     */
+    public void onMessage(ChatMessage msg) {
+        try {
+            if (msg.getGroupId() != null) {
+                counters.nextGroupSeq(msg.getGroupId());
+                // The sender is looking at the group, so it is read up to here for them
+                counters.markGroupSeen(msg.getSenderId(), msg.getGroupId());
+            } else if (msg.getReceiverId() != null && !msg.getReceiverId().equals(msg.getSenderId())) {
+                counters.incrementPeer(msg.getReceiverId(), msg.getSenderId());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to count unread message {}: {}", msg.getId(), e.getMessage());
+        }
+    }
+
+    public void markPeerRead(long userId, long peerId) {
+        counters.resetPeer(userId, peerId);
+    }
+
+    /**
+     * Sets the badge for {@code peerId} to the peer's messages newer than {@code lastReadId}, for
+     * read receipts that stop short of the conversation's newest message.
+     */
+    public void recountPeer(long userId, long peerId, long lastReadId) {
+        long unread = messageMapper.countFromPeerAfter(ConversationIds.of(userId, peerId), peerId, lastReadId);
+        counters.setPeer(userId, peerId, unread);
+    }
+
+    public void markGroupRead(long userId, long groupId) {
+        counters.markGroupSeen(userId, groupId);
+    }
+
+    public void leaveGroup(long userId, long groupId) {
+        counters.forgetGroup(userId, groupId);
+    }
+
+    /**
+     * All badges of a user: {@code friends} and {@code groups} map ids to counts (zeros
+     * omitted), plus the {@code total}. Costs one hash read plus one multi-get of group sequences.
+     */
+    public Map<String, Object> badges(long userId) {
+        Map<String, String> fields = counters.fields(userId);
+        Map<String, Long> friends = new HashMap<>();
+        Map<Long, Long> seenByGroup = new HashMap<>();
+        for (Map.Entry<String, String> e : fields.entrySet()) {
+            String field = e.getKey();
+            long value = Long.parseLong(e.getValue());
+            if (field.startsWith(UnreadCounters.PEER_PREFIX)) {
+                if (value > 0) {
+                    friends.put(field.substring(UnreadCounters.PEER_PREFIX.length()), value);
+                }
+            } else if (field.startsWith(UnreadCounters.GROUP_PREFIX)) {
+                seenByGroup.put(Long.parseLong(field.substring(UnreadCounters.GROUP_PREFIX.length())), value);
+            }
+        }
+        for (Long groupId : groupMembershipIndex.groupsOf(userId)) {
+            if (!seenByGroup.containsKey(groupId)) {
+                // Nothing to count before the seed; the group simply shows no badge yet
+                counters.markGroupSeen(userId, groupId);
+            }
+        }
+        Map<String, Long> groups = new HashMap<>();
+        if (!seenByGroup.isEmpty()) {
+            Map<Long, Long> seqs = counters.groupSeqs(new ArrayList<>(seenByGroup.keySet()));
+            seenByGroup.forEach((groupId, seen) -> {
+                long unread = seqs.getOrDefault(groupId, 0L) - seen;
+                if (unread > 0) {
+                    groups.put(String.valueOf(groupId), unread);
+                }
+            });
+        }
+        long total = 0;
+        for (long n : friends.values()) total += n;
+        for (long n : groups.values()) total += n;
+
+        Map<String, Object> res = new HashMap<>();
+        res.put("friends", friends);
+        res.put("groups", groups);
+        res.put("total", total);
+        return res;
+    }
+
+    /**
+     * Non-zero one-to-one unread counts of a user by peer id; one hash read, no group lookups.
+     */
+    public Map<Long, Long> peerCounts(long userId) {
+        Map<Long, Long> res = new HashMap<>();
+        for (Map.Entry<String, String> e : counters.fields(userId).entrySet()) {
+            String field = e.getKey();
+            if (field.startsWith(UnreadCounters.PEER_PREFIX)) {
+                long value = Long.parseLong(e.getValue());
+                if (value > 0) {
+                    res.put(Long.parseLong(field.substring(UnreadCounters.PEER_PREFIX.length())), value);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Recomputes a user's one-to-one counters from MySQL, repairing drift (e.g. after a Redis
+     * flush or a crash between persisting and counting).
+     */
+    public Map<String, Object> rebuild(long userId) {
+        List<UnreadCount> rows = messageMapper.countUnreadBySender(userId);
+        Map<Long, Long> counts = new HashMap<>();
+        for (UnreadCount row : rows) {
+            if (row.getPeerId() != null && row.getUnread() != null && row.getUnread() > 0) {
+                counts.put(row.getPeerId(), row.getUnread());
+            }
+        }
+        counters.replacePeers(userId, counts);
+        return badges(userId);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.jialechatweb.chat;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Storage for unread badges. Per user there is one hash whose fields are
+ * {@code u:<peerId>} (unread count of a one-to-one chat) and {@code g:<groupId>} (the group
+ * sequence number the user had seen when they last read that group). Groups keep a single
+ * message sequence each, so a group message costs one increment instead of one per member.
+ */
+interface UnreadCounters {
+    String PEER_PREFIX = "u:";
+    String GROUP_PREFIX = "g:";
+
+    void incrementPeer(long userId, long peerId);
+
+    void resetPeer(long userId, long peerId);
+
+    /**
+     * Sets one {@code u:} field; a zero count removes it.
+     */
+    void setPeer(long userId, long peerId, long count);
+
+    /**
+     * Replaces every {@code u:} field of the user with the given counts.
+     */
+    void replacePeers(long userId, Map<Long, Long> counts);
+
+    long nextGroupSeq(long groupId);
+
+    void markGroupSeen(long userId, long groupId);
+
+    void forgetGroup(long userId, long groupId);
+
+    Map<String, String> fields(long userId);
+
+    Map<Long, Long> groupSeqs(Collection<Long> groupIds);
+}
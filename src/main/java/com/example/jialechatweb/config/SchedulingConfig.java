@@ -0,0 +1,13 @@
+package com.example.jialechatweb.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the {@code @Scheduled} sweeps and flushes. They share Spring Boot's scheduler, sized
+ * by {@code spring.task.scheduling.pool.size} so one blocked task cannot hold up the others.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,7 +1,10 @@
 package com.example.jialechatweb.friend;
 
-import com.example.jialechatweb.oss.OssService;
+import com.example.jialechatweb.oss.SignedUrlCache;
 import jakarta.validation.constraints.NotNull;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -12,11 +15,16 @@ import java.util.Map;
 @RequestMapping("/api/friends")
 public class FriendController {
     private final FriendMapper friendMapper;
-    private final OssService ossService;
+    private final SignedUrlCache signedUrls;
+    private final FriendGraphCache friendGraph;
+    private final FriendSnapshotService snapshotService;
 
-    public FriendController(FriendMapper friendMapper, OssService ossService) {
+    public FriendController(FriendMapper friendMapper, SignedUrlCache signedUrls, FriendGraphCache friendGraph,
+                            FriendSnapshotService snapshotService) {
         this.friendMapper = friendMapper;
-        this.ossService = ossService;
+        this.signedUrls = signedUrls;
+        this.friendGraph = friendGraph;
+        this.snapshotService = snapshotService;
     }
 
     public record AddRequest(@NotNull Long friendId, String remark) {}
@@ -30,29 +38,62 @@ public class FriendController {
         f.setRemark(req.remark());
         f.setStatus("ACCEPTED");
         friendMapper.insert(f);
+        friendGraph.rowChanged(f);
         return ResponseEntity.ok(Map.of("id", f.getId()));
     }
 
     @DeleteMapping("/{friendId}")
     public ResponseEntity<?> remove(@RequestAttribute("currentUserId") Long userId, @PathVariable Long friendId) {
         friendMapper.delete(userId, friendId);
+        friendGraph.rowDeleted(userId, friendId);
         return ResponseEntity.ok().build();
     }
 
     @PutMapping
     public ResponseEntity<?> update(@RequestAttribute("currentUserId") Long userId, @RequestBody UpdateReq req) {
         friendMapper.updateRemark(userId, req.friendId(), req.remark());
+        friendGraph.remarkChanged(userId, req.friendId(), req.remark());
         return ResponseEntity.ok().build();
     }
 
     @GetMapping
     public ResponseEntity<?> list(@RequestAttribute("currentUserId") Long userId) {
-        List<FriendDTO> friends = friendMapper.list(userId);
+        List<FriendDTO> friends = friendGraph.list(userId);
         friends.forEach(f -> {
             if (f.getAvatarUrl() != null) {
-                f.setAvatarUrl(ossService.generateSignedUrl(f.getAvatarUrl()));
+                f.setAvatarUrl(signedUrls.sign(f.getAvatarUrl()));
             }
         });
         return ResponseEntity.ok(friends);
     }
+
+    /**
+     * The whole friends sidebar: display data, avatar, presence, unread count and last message.
+     * Revalidate with If-None-Match; an unchanged sidebar is answered with an empty 304.
+     */
+    @GetMapping("/snapshot")
+    public ResponseEntity<?> snapshot(@RequestAttribute("currentUserId") Long userId,
+                                      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        FriendSnapshotService.Snapshot snapshot = snapshotService.snapshot(userId);
+        // Private: the body is per user; no-cache: always revalidate, presence changes by the minute
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (matches(ifNoneMatch, snapshot.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok().eTag(snapshot.etag()).cacheControl(cacheControl).body(snapshot.friends());
+    }
+
+    // Weak comparison as RFC 9110 prescribes for If-None-Match; proxies may weaken the tag
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
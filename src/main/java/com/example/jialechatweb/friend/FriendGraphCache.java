@@ -0,0 +1,377 @@
+package com.example.jialechatweb.friend;
+
+import com.example.jialechatweb.user.UserProfileCache;
+import com.example.jialechatweb.util.ConcurrentLongObjectMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Per-user view of the {@code friends} rows the user is on either side of: sorted {@code long[]}
+ * sets of accepted friends and of pending requests in each direction. Answers "are we friends",
+ * friend counts, the friend list and P2P send authorization from memory.
+ * <p>
+ * A user's view is loaded with one query, which also primes {@link UserProfileCache} with the
+ * friends' profiles. Views are immutable and replaced as a whole; writers report the rows they
+ * changed and the views of both users are patched after the transaction commits (views that are
+ * not cached are left to load from the database). Changes made on other nodes are picked up when
+ * a view expires after {@code ttl-seconds}, and {@link #canMessage} re-reads a sender's view
+ * before refusing unless it was loaded within {@code recheck-ms}, so a friendship accepted
+ * elsewhere is held up by at most that long while a sender hammering strangers costs at most one
+ * query per interval. At {@code max-users} one sweep drops expired views and then arbitrary ones
+ * until an eighth of the capacity is free.
+ */
+@Component
+public class FriendGraphCache {
+    static final String ACCEPTED = "ACCEPTED";
+    private static final long[] NONE = new long[0];
+    private static final Edge[] NO_EDGES = new Edge[0];
+
+    public enum Relation {
+        NONE,
+        FRIENDS,
+        // The user has a pending request to the other user
+        REQUESTED,
+        // The other user has a pending request to the user
+        REQUESTED_BY
+    }
+
+    private final FriendMapper friendMapper;
+    private final UserProfileCache profileCache;
+    private final long ttlNanos;
+    private final long recheckNanos;
+    private final int maxUsers;
+    private final ConcurrentLongObjectMap<Adjacency> graphs = new ConcurrentLongObjectMap<>(1024);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Row metadata the friend list needs besides the friend's profile
+    private record Edge(long rowId, String remark, Instant createdAt) {}
+
+    /**
+     * @param friends  users this user has an accepted row to, with {@code edges} in the same order
+     * @param friendOf users with an accepted row to this user
+     * @param outgoing users this user has a pending request to
+     * @param incoming users with a pending request to this user
+     */
+    private record Adjacency(long[] friends, Edge[] edges, long[] friendOf, long[] outgoing, long[] incoming,
+                             long loadedAt) {
+
+        Adjacency outgoingRow(long other, String status, Edge edge) {
+            if (ACCEPTED.equals(status)) {
+                int i = Arrays.binarySearch(friends, other);
+                Edge[] e;
+                long[] f;
+                if (i >= 0) {
+                    f = friends;
+                    e = edges.clone();
+                    e[i] = edge;
+                } else {
+                    f = insert(friends, -i - 1, other);
+                    e = insert(edges, -i - 1, edge);
+                }
+                return new Adjacency(f, e, friendOf, without(outgoing, other), incoming, loadedAt);
+            }
+            return withoutFriend(other).withOutgoing(with(outgoing, other));
+        }
+
+        Adjacency incomingRow(long other, String status) {
+            if (ACCEPTED.equals(status)) {
+                return new Adjacency(friends, edges, with(friendOf, other), outgoing, without(incoming, other), loadedAt);
+            }
+            return new Adjacency(friends, edges, without(friendOf, other), outgoing, with(incoming, other), loadedAt);
+        }
+
+        Adjacency outgoingRemoved(long other) {
+            return withoutFriend(other).withOutgoing(without(outgoing, other));
+        }
+
+        Adjacency incomingRemoved(long other) {
+            return new Adjacency(friends, edges, without(friendOf, other), outgoing, without(incoming, other), loadedAt);
+        }
+
+        Adjacency remark(long other, String remark) {
+            int i = Arrays.binarySearch(friends, other);
+            if (i < 0) {
+                return this;
+            }
+            Edge[] e = edges.clone();
+            e[i] = new Edge(e[i].rowId(), remark, e[i].createdAt());
+            return new Adjacency(friends, e, friendOf, outgoing, incoming, loadedAt);
+        }
+
+        private Adjacency withoutFriend(long other) {
+            int i = Arrays.binarySearch(friends, other);
+            if (i < 0) {
+                return this;
+            }
+            return new Adjacency(remove(friends, i), remove(edges, i), friendOf, outgoing, incoming, loadedAt);
+        }
+
+        private Adjacency withOutgoing(long[] out) {
+            return out == outgoing ? this : new Adjacency(friends, edges, friendOf, out, incoming, loadedAt);
+        }
+    }
+
+    public FriendGraphCache(FriendMapper friendMapper,
+                            UserProfileCache profileCache,
+                            @Value("${chat.cache.friends.ttl-seconds:300}") long ttlSeconds,
+                            @Value("${chat.cache.friends.recheck-ms:3000}") long recheckMillis,
+                            @Value("${chat.cache.friends.max-users:50000}") int maxUsers) {
+        this.friendMapper = friendMapper;
+        this.profileCache = profileCache;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+        this.recheckNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, recheckMillis));
+        this.maxUsers = Math.max(1, maxUsers);
+    }
+
+    public boolean areFriends(long userId, long otherId) {
+        Adjacency g = graph(userId);
+        return contains(g.friends(), otherId) || contains(g.friendOf(), otherId);
+    }
+
+    /**
+     * Whether {@code senderId} may send one-to-one messages to {@code receiverId}. A refusal is
+     * confirmed against the database first, unless the view was loaded within {@code recheck-ms}.
+     */
+    public boolean canMessage(long senderId, long receiverId) {
+        Adjacency g = graph(senderId);
+        if (contains(g.friends(), receiverId) || contains(g.friendOf(), receiverId)) {
+            return true;
+        }
+        if (System.nanoTime() - g.loadedAt() < recheckNanos) {
+            return false;
+        }
+        Adjacency fresh = load(senderId);
+        return contains(fresh.friends(), receiverId) || contains(fresh.friendOf(), receiverId);
+    }
+
+    public Relation relation(long userId, long otherId) {
+        Adjacency g = graph(userId);
+        if (contains(g.friends(), otherId) || contains(g.friendOf(), otherId)) {
+            return Relation.FRIENDS;
+        }
+        if (contains(g.outgoing(), otherId)) {
+            return Relation.REQUESTED;
+        }
+        if (contains(g.incoming(), otherId)) {
+            return Relation.REQUESTED_BY;
+        }
+        return Relation.NONE;
+    }
+
+    /**
+     * Number of accepted friends, as {@link FriendMapper#countAccepted}.
+     */
+    public int friendCount(long userId) {
+        return graph(userId).friends().length;
+    }
+
+    /**
+     * The user's friends with their profiles, as {@link FriendMapper#list} (avatar URLs unsigned).
+     */
+    public List<FriendDTO> list(long userId) {
+        Adjacency g = graph(userId);
+        List<FriendDTO> list = new ArrayList<>(g.friends().length);
+        for (int i = 0; i < g.friends().length; i++) {
+            UserProfileCache.Profile profile = profileCache.get(g.friends()[i]);
+            if (profile == null) {
+                continue;
+            }
+            Edge edge = g.edges()[i];
+            FriendDTO dto = new FriendDTO();
+            dto.setId(edge.rowId());
+            dto.setUserId(userId);
+            dto.setFriendId(profile.id());
+            dto.setRemark(edge.remark());
+            dto.setStatus(ACCEPTED);
+            dto.setCreatedAt(edge.createdAt());
+            dto.setDisplayName(profile.displayName());
+            dto.setAvatarUrl(profile.avatarKey());
+            dto.setUsername(profile.username());
+            list.add(dto);
+        }
+        return list;
+    }
+
+    /**
+     * A row was inserted or its status changed; both users' views are patched after commit.
+     */
+    public void rowChanged(Friend row) {
+        long userId = row.getUserId();
+        long friendId = row.getFriendId();
+        String status = row.getStatus();
+        Edge edge = new Edge(row.getId() != null ? row.getId() : 0L, row.getRemark(),
+                row.getCreatedAt() != null ? row.getCreatedAt() : Instant.now());
+        afterCommit(() -> {
+            patch(userId, g -> g.outgoingRow(friendId, status, edge));
+            patch(friendId, g -> g.incomingRow(userId, status));
+        });
+    }
+
+    public void rowDeleted(long userId, long friendId) {
+        afterCommit(() -> {
+            patch(userId, g -> g.outgoingRemoved(friendId));
+            patch(friendId, g -> g.incomingRemoved(userId));
+        });
+    }
+
+    public void remarkChanged(long userId, long friendId, String remark) {
+        afterCommit(() -> patch(userId, g -> g.remark(friendId, remark)));
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of("users", graphs.size(), "hits", hits.sum(), "misses", misses.sum());
+    }
+
+    private Adjacency graph(long userId) {
+        Adjacency g = graphs.get(userId);
+        if (g != null && System.nanoTime() - g.loadedAt() < ttlNanos) {
+            hits.increment();
+            return g;
+        }
+        return load(userId);
+    }
+
+    private Adjacency load(long userId) {
+        misses.increment();
+        long now = System.nanoTime();
+        List<FriendDTO> rows = friendMapper.listEdges(userId);
+        // Outgoing rows name the other user in friendId, incoming ones in userId
+        rows.sort(Comparator.comparingLong(r -> other(userId, r)));
+        long[] friends = new long[rows.size()];
+        Edge[] edges = new Edge[rows.size()];
+        long[] friendOf = new long[rows.size()];
+        long[] outgoing = new long[rows.size()];
+        long[] incoming = new long[rows.size()];
+        int nf = 0, nfo = 0, no = 0, ni = 0;
+        for (FriendDTO r : rows) {
+            long other = other(userId, r);
+            boolean out = r.getUserId() == userId;
+            boolean accepted = ACCEPTED.equals(r.getStatus());
+            if (out && accepted) {
+                friends[nf] = other;
+                edges[nf++] = new Edge(r.getId(), r.getRemark(), r.getCreatedAt());
+            } else if (out) {
+                outgoing[no++] = other;
+            } else if (accepted) {
+                friendOf[nfo++] = other;
+            } else {
+                incoming[ni++] = other;
+            }
+            profileCache.prime(new UserProfileCache.Profile(other, r.getUsername(), r.getDisplayName(), r.getAvatarUrl()));
+        }
+        Adjacency g = new Adjacency(Arrays.copyOf(friends, nf), Arrays.copyOf(edges, nf), Arrays.copyOf(friendOf, nfo),
+                Arrays.copyOf(outgoing, no), Arrays.copyOf(incoming, ni), now);
+        if (graphs.size() >= maxUsers && !graphs.containsKey(userId)) {
+            makeRoom(now);
+        }
+        graphs.put(userId, g);
+        return g;
+    }
+
+    /**
+     * Drops expired views and then arbitrary ones until an eighth of the capacity is free, so
+     * the O(n) sweep is paid once per n/8 loads rather than on every load.
+     */
+    private void makeRoom(long now) {
+        int excess = graphs.size() - (maxUsers - Math.max(1, maxUsers / 8));
+        // forEach holds segment locks, so collect first and remove afterwards
+        List<Long> expired = new ArrayList<>();
+        List<Long> others = new ArrayList<>();
+        graphs.forEach((id, e) -> {
+            if (now - e.loadedAt() >= ttlNanos) {
+                expired.add(id);
+            } else if (others.size() < excess) {
+                others.add(id);
+            }
+        });
+        expired.forEach(graphs::remove);
+        for (int i = 0; i < others.size() && i < excess - expired.size(); i++) {
+            graphs.remove(others.get(i));
+        }
+    }
+
+    private void patch(long userId, UnaryOperator<Adjacency> change) {
+        graphs.compute(userId, (id, current) -> current == null ? null : change.apply(current));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static long other(long userId, FriendDTO row) {
+        return row.getUserId() == userId ? row.getFriendId() : row.getUserId();
+    }
+
+    private static boolean contains(long[] set, long id) {
+        return Arrays.binarySearch(set, id) >= 0;
+    }
+
+    private static long[] with(long[] set, long id) {
+        int i = Arrays.binarySearch(set, id);
+        return i >= 0 ? set : insert(set, -i - 1, id);
+    }
+
+    private static long[] without(long[] set, long id) {
+        int i = Arrays.binarySearch(set, id);
+        return i < 0 ? set : remove(set, i);
+    }
+
+    private static long[] insert(long[] a, int at, long v) {
+        long[] r = new long[a.length + 1];
+        System.arraycopy(a, 0, r, 0, at);
+        r[at] = v;
+        System.arraycopy(a, at, r, at + 1, a.length - at);
+        return r;
+    }
+
+    private static Edge[] insert(Edge[] a, int at, Edge v) {
+        Edge[] r = new Edge[a.length + 1];
+        System.arraycopy(a, 0, r, 0, at);
+        r[at] = v;
+        System.arraycopy(a, at, r, at + 1, a.length - at);
+        return r;
+    }
+
+    private static long[] remove(long[] a, int at) {
+        if (a.length == 1) {
+            return NONE;
+        }
+        long[] r = new long[a.length - 1];
+        System.arraycopy(a, 0, r, 0, at);
+        System.arraycopy(a, at + 1, r, at, a.length - at - 1);
+        return r;
+    }
+
+    private static Edge[] remove(Edge[] a, int at) {
+        if (a.length == 1) {
+            return NO_EDGES;
+        }
+        Edge[] r = new Edge[a.length - 1];
+        System.arraycopy(a, 0, r, 0, at);
+        System.arraycopy(a, at + 1, r, at, a.length - at - 1);
+        return r;
+    }
+}
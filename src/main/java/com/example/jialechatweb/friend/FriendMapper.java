@@ -46,6 +46,26 @@ public interface FriendMapper {
         """)
     List<Friend> listBetween(@Param("userId") Long userId, @Param("friendId") Long friendId);
 
+    /**
+     * Every row the user is on either side of, with the other user's profile; what
+     * FriendGraphCache is built from. Bypasses the namespace cache, which that cache replaces.
+     */
+    @Select("""
+        SELECT f.id, f.user_id AS userId, f.friend_id AS friendId, f.remark, f.status, f.created_at AS createdAt,
+               u.display_name AS displayName, u.avatar_url AS avatarUrl, u.username AS username
+        FROM friends f
+        JOIN users u ON f.friend_id = u.id
+        WHERE f.user_id = #{userId}
+        UNION ALL
+        SELECT f.id, f.user_id AS userId, f.friend_id AS friendId, f.remark, f.status, f.created_at AS createdAt,
+               u.display_name AS displayName, u.avatar_url AS avatarUrl, u.username AS username
+        FROM friends f
+        JOIN users u ON f.user_id = u.id
+        WHERE f.friend_id = #{userId}
+        """)
+    @Options(useCache = false)
+    List<FriendDTO> listEdges(Long userId);
+
     @Select("SELECT COUNT(*) FROM friends WHERE user_id = #{userId} AND status = 'ACCEPTED'")
     int countAccepted(Long userId);
 
@@ -1,6 +1,7 @@
 package com.example.jialechatweb.friend;
 
 import com.example.jialechatweb.user.User;
+import com.example.jialechatweb.user.UserProfileCache;
 import com.example.jialechatweb.user.UserService;
 import com.example.jialechatweb.ws.ChatWebSocketHandler;
 import org.springframework.beans.factory.ObjectProvider;
@@ -20,6 +21,8 @@ public class FriendRequestService {
     private final FriendRequestLogMapper logMapper;
     private final FriendRequestLimiter limiter;
     private final ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider;
+    private final FriendGraphCache friendGraph;
+    private final UserProfileCache profileCache;
     private final int maxPerDay;
     private final int maxFriends;
 
@@ -29,6 +32,8 @@ public class FriendRequestService {
             FriendRequestLogMapper logMapper,
             FriendRequestLimiter limiter,
             ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider,
+            FriendGraphCache friendGraph,
+            UserProfileCache profileCache,
             @Value("${friends.request.max-per-day:20}") int maxPerDay,
             @Value("${friends.max-count:500}") int maxFriends) {
         this.friendMapper = friendMapper;
@@ -36,6 +41,8 @@ public class FriendRequestService {
         this.logMapper = logMapper;
         this.limiter = limiter;
         this.chatWebSocketHandlerProvider = chatWebSocketHandlerProvider;
+        this.friendGraph = friendGraph;
+        this.profileCache = profileCache;
         this.maxPerDay = maxPerDay;
         this.maxFriends = maxFriends;
     }
@@ -55,26 +62,18 @@ public class FriendRequestService {
         if (!limiter.allowMinInterval(userId, target.getId())) {
             throw new RateLimitException("请求过于频繁，请稍后再试");
         }
-        int acceptedCount = friendMapper.countAccepted(userId);
-        if (acceptedCount >= maxFriends) {
+        if (friendGraph.friendCount(userId) >= maxFriends) {
             throw new IllegalArgumentException("已达好友上限");
         }
         int dailyCount = logMapper.countByUserSince(userId, "SEND", Instant.now().minus(1, ChronoUnit.DAYS));
         if (dailyCount >= maxPerDay) {
             throw new IllegalArgumentException("今日好友请求次数已达上限");
         }
-        List<Friend> relations = friendMapper.listBetween(userId, target.getId());
-        for (Friend r : relations) {
-            if ("ACCEPTED".equals(r.getStatus())) {
-                throw new IllegalArgumentException("已是好友");
-            }
-            if ("PENDING".equals(r.getStatus())) {
-                if (r.getUserId().equals(userId)) {
-                    throw new IllegalArgumentException("请求已发送");
-                } else {
-                    throw new IllegalArgumentException("对方已向你发出请求");
-                }
-            }
+        switch (friendGraph.relation(userId, target.getId())) {
+            case FRIENDS -> throw new IllegalArgumentException("已是好友");
+            case REQUESTED -> throw new IllegalArgumentException("请求已发送");
+            case REQUESTED_BY -> throw new IllegalArgumentException("对方已向你发出请求");
+            case NONE -> { }
         }
 
         Friend req = new Friend();
@@ -82,6 +81,7 @@ public class FriendRequestService {
         req.setFriendId(target.getId());
         req.setStatus("PENDING");
         friendMapper.insert(req);
+        friendGraph.rowChanged(req);
 
         FriendRequestLog log = new FriendRequestLog();
         log.setUserId(userId);
@@ -89,8 +89,11 @@ public class FriendRequestService {
         log.setAction("SEND");
         logMapper.insert(log);
 
-        User requester = userService.findById(userId).orElseThrow(() -> new IllegalArgumentException("用户不存在"));
-        notifyFriendRequest(target.getId(), userId, req.getId(), requester.getUsername(), requester.getDisplayName());
+        UserProfileCache.Profile requester = profileCache.get(userId);
+        if (requester == null) {
+            throw new IllegalArgumentException("用户不存在");
+        }
+        notifyFriendRequest(target.getId(), userId, req.getId(), requester.username(), requester.displayName());
 
         return new SendResult(req.getId(), target.getUsername(), target.getDisplayName(), 5);
     }
@@ -105,6 +108,7 @@ public class FriendRequestService {
         if (removed == 0) {
             throw new IllegalArgumentException("无可取消的请求");
         }
+        friendGraph.rowDeleted(userId, target.getId());
         FriendRequestLog log = new FriendRequestLog();
         log.setUserId(userId);
         log.setTargetId(target.getId());
@@ -125,6 +129,8 @@ public class FriendRequestService {
         boolean hasPendingFromRequester = false;
         boolean hasRowFromMe = false;
         boolean hasAccepted = false;
+        Friend requesterRow = null;
+        Friend myRow = null;
         for (Friend r : relations) {
             if ("ACCEPTED".equals(r.getStatus())) {
                 hasAccepted = true;
@@ -132,6 +138,7 @@ public class FriendRequestService {
             if ("PENDING".equals(r.getStatus())) {
                 if (r.getUserId().equals(requesterId) && r.getFriendId().equals(userId)) {
                     hasPendingFromRequester = true;
+                    requesterRow = r;
                 }
                 if (r.getUserId().equals(userId) && r.getFriendId().equals(requesterId)) {
                     hasRowFromMe = true;
@@ -139,6 +146,7 @@ public class FriendRequestService {
             }
             if (r.getUserId().equals(userId) && r.getFriendId().equals(requesterId)) {
                 hasRowFromMe = true;
+                myRow = r;
             }
         }
         if (hasAccepted) {
@@ -148,16 +156,24 @@ public class FriendRequestService {
             throw new IllegalArgumentException("无可处理的请求");
         }
         friendMapper.updateStatus(requesterId, userId, "ACCEPTED");
+        requesterRow.setStatus("ACCEPTED");
+        friendGraph.rowChanged(requesterRow);
         if (hasRowFromMe) {
             friendMapper.updateStatus(userId, requesterId, "ACCEPTED");
+            myRow.setStatus("ACCEPTED");
+            friendGraph.rowChanged(myRow);
         } else {
-            User requester = userService.findById(requesterId).orElseThrow(() -> new IllegalArgumentException("账号不存在"));
+            UserProfileCache.Profile requester = profileCache.get(requesterId);
+            if (requester == null) {
+                throw new IllegalArgumentException("账号不存在");
+            }
             Friend reciprocal = new Friend();
             reciprocal.setUserId(userId);
             reciprocal.setFriendId(requesterId);
-            reciprocal.setRemark(requester.getDisplayName());
+            reciprocal.setRemark(requester.displayName());
             reciprocal.setStatus("ACCEPTED");
             friendMapper.insert(reciprocal);
+            friendGraph.rowChanged(reciprocal);
         }
         FriendRequestLog log = new FriendRequestLog();
         log.setUserId(userId);
@@ -175,6 +191,7 @@ public class FriendRequestService {
         if (removed == 0) {
             throw new IllegalArgumentException("无可处理的请求");
         }
+        friendGraph.rowDeleted(requesterId, userId);
         FriendRequestLog log = new FriendRequestLog();
         log.setUserId(userId);
         log.setTargetId(requesterId);
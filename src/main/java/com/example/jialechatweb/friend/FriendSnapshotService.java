@@ -0,0 +1,169 @@
+package com.example.jialechatweb.friend;
+
+import com.example.jialechatweb.chat.ChatMessage;
+import com.example.jialechatweb.chat.ConversationIds;
+import com.example.jialechatweb.chat.MessageTailCache;
+import com.example.jialechatweb.chat.UnreadCounterService;
+import com.example.jialechatweb.oss.SignedUrlCache;
+import com.example.jialechatweb.ws.PresenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything the friends sidebar shows, in one call: display data and avatar from the friend
+ * graph and profile caches, presence from one multi-get, unread counts from one hash read and
+ * the last message of every conversation from the tail cache plus one query for the rest.
+ * <p>
+ * The ETag is a hash over the assembled content, so a client revalidating an unchanged sidebar
+ * gets a 304 without the body being serialized or sent.
+ */
+@Service
+public class FriendSnapshotService {
+    private static final Logger log = LoggerFactory.getLogger(FriendSnapshotService.class);
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final FriendGraphCache friendGraph;
+    private final SignedUrlCache signedUrls;
+    private final MessageTailCache tailCache;
+    private final UnreadCounterService unreadCounterService;
+    private final ObjectProvider<PresenceService> presenceServiceProvider;
+    private final int previewChars;
+
+    public record LastMessage(String id, String senderId, String contentType, String preview, Instant createdAt) {}
+
+    public record Entry(String friendId, String username, String displayName, String remark, String avatarUrl,
+                        boolean online, long unread, LastMessage lastMessage) {}
+
+    public record Snapshot(List<Entry> friends, String etag) {}
+
+    public FriendSnapshotService(FriendGraphCache friendGraph,
+                                 SignedUrlCache signedUrls,
+                                 MessageTailCache tailCache,
+                                 UnreadCounterService unreadCounterService,
+                                 ObjectProvider<PresenceService> presenceServiceProvider,
+                                 @Value("${friends.snapshot.preview-chars:60}") int previewChars) {
+        this.friendGraph = friendGraph;
+        this.signedUrls = signedUrls;
+        this.tailCache = tailCache;
+        this.unreadCounterService = unreadCounterService;
+        this.presenceServiceProvider = presenceServiceProvider;
+        this.previewChars = Math.max(1, previewChars);
+    }
+
+    public Snapshot snapshot(long userId) {
+        List<FriendDTO> friends = friendGraph.list(userId);
+        List<Long> friendIds = new ArrayList<>(friends.size());
+        List<Long> conversationIds = new ArrayList<>(friends.size());
+        for (FriendDTO f : friends) {
+            friendIds.add(f.getFriendId());
+            conversationIds.add(ConversationIds.of(userId, f.getFriendId()));
+        }
+        Set<Long> online = online(friendIds);
+        Map<Long, Long> unread = unread(userId);
+        Map<Long, ChatMessage> latest = conversationIds.isEmpty()
+                ? Map.of()
+                : tailCache.latestOfConversations(conversationIds);
+
+        List<Entry> entries = new ArrayList<>(friends.size());
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < friends.size(); i++) {
+            FriendDTO f = friends.get(i);
+            long friendId = friendIds.get(i);
+            ChatMessage last = latest.get(conversationIds.get(i));
+            Entry entry = new Entry(
+                    String.valueOf(friendId),
+                    f.getUsername(),
+                    f.getDisplayName(),
+                    f.getRemark(),
+                    signedUrls.sign(f.getAvatarUrl()),
+                    online.contains(friendId),
+                    unread.getOrDefault(friendId, 0L),
+                    last == null ? null : new LastMessage(
+                            String.valueOf(last.getId()),
+                            String.valueOf(last.getSenderId()),
+                            last.getContentType(),
+                            preview(last),
+                            last.getCreatedAt()));
+            entries.add(entry);
+            hash = hash(hash, entry);
+        }
+        return new Snapshot(entries, "\"" + Long.toHexString(hash) + "\"");
+    }
+
+    // The sidebar degrades to "offline" / "no badge" rather than failing when Redis is down
+    private Set<Long> online(List<Long> friendIds) {
+        PresenceService presence = presenceServiceProvider.getIfAvailable();
+        if (presence == null || friendIds.isEmpty()) {
+            return Set.of();
+        }
+        try {
+            return new HashSet<>(presence.online(friendIds));
+        } catch (Exception e) {
+            log.warn("Failed to read presence for friend snapshot: {}", e.getMessage());
+            return Set.of();
+        }
+    }
+
+    private Map<Long, Long> unread(long userId) {
+        try {
+            return unreadCounterService.peerCounts(userId);
+        } catch (Exception e) {
+            log.warn("Failed to read unread counts for friend snapshot of {}: {}", userId, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Leading text of text messages, cut at a code point boundary; null for images and files,
+     * whose content is an object key the client renders as a placeholder.
+     */
+    private String preview(ChatMessage msg) {
+        String content = msg.getContent();
+        String type = msg.getContentType();
+        if (content == null || (type != null && !type.equals("text") && !type.equals("emoji"))) {
+            return null;
+        }
+        if (content.codePointCount(0, content.length()) <= previewChars) {
+            return content;
+        }
+        return content.substring(0, content.offsetByCodePoints(0, previewChars)) + "…";
+    }
+
+    private static long hash(long h, Entry e) {
+        h = hash(h, e.friendId());
+        h = hash(h, e.username());
+        h = hash(h, e.displayName());
+        h = hash(h, e.remark());
+        h = hash(h, e.avatarUrl());
+        h = (h ^ (e.online() ? 1 : 0)) * FNV_PRIME;
+        h = (h ^ e.unread()) * FNV_PRIME;
+        LastMessage m = e.lastMessage();
+        if (m != null) {
+            h = hash(h, m.id());
+            h = hash(h, m.contentType());
+            h = hash(h, m.preview());
+        }
+        return h;
+    }
+
+    // FNV-1a over the UTF-16 units plus a terminator, so adjacent fields cannot run together
+    private static long hash(long h, String s) {
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return (h ^ 0xFFFF) * FNV_PRIME;
+    }
+}
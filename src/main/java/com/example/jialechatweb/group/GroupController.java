@@ -1,19 +1,32 @@
 package com.example.jialechatweb.group;
 
+import com.example.jialechatweb.chat.UnreadCounterService;
+import com.example.jialechatweb.ws.ChatWebSocketHandler;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/groups")
 public class GroupController {
     private final GroupMapper groupMapper;
+    private final GroupMembershipIndex membershipIndex;
+    private final ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider;
+    private final UnreadCounterService unreadCounterService;
 
-    public GroupController(GroupMapper groupMapper) {
+    public GroupController(GroupMapper groupMapper,
+                           GroupMembershipIndex membershipIndex,
+                           ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider,
+                           UnreadCounterService unreadCounterService) {
         this.groupMapper = groupMapper;
+        this.membershipIndex = membershipIndex;
+        this.chatWebSocketHandlerProvider = chatWebSocketHandlerProvider;
+        this.unreadCounterService = unreadCounterService;
     }
 
     public record CreateReq(@NotBlank String name) {}
@@ -26,18 +39,28 @@ public class GroupController {
         g.setOwnerId(userId);
         groupMapper.insert(g);
         groupMapper.addMember(g.getId(), userId);
+        membershipIndex.putGroup(g.getId(), List.of(userId));
+        unreadCounterService.markGroupRead(userId, g.getId());
+        notifyMembershipChange(g.getId(), userId, "add");
         return ResponseEntity.ok(Map.of("id", g.getId(), "name", g.getName()));
     }
 
     @PostMapping("/{groupId}/members")
     public ResponseEntity<?> add(@PathVariable Long groupId, @RequestBody MemberReq req) {
         groupMapper.addMember(groupId, req.userId());
+        membershipIndex.addMember(groupId, req.userId());
+        // Badges count from the moment of joining, not the group's whole history
+        unreadCounterService.markGroupRead(req.userId(), groupId);
+        notifyMembershipChange(groupId, req.userId(), "add");
         return ResponseEntity.ok().build();
     }
 
     @DeleteMapping("/{groupId}/members/{userId}")
     public ResponseEntity<?> remove(@PathVariable Long groupId, @PathVariable Long userId) {
         groupMapper.removeMember(groupId, userId);
+        membershipIndex.removeMember(groupId, userId);
+        unreadCounterService.leaveGroup(userId, groupId);
+        notifyMembershipChange(groupId, userId, "remove");
         return ResponseEntity.ok().build();
     }
 
@@ -45,4 +68,17 @@ public class GroupController {
     public ResponseEntity<?> myGroups(@RequestAttribute("currentUserId") Long userId) {
         return ResponseEntity.ok(groupMapper.listByUser(userId));
     }
+
+    private void notifyMembershipChange(Long groupId, Long userId, String action) {
+        // Other nodes keep their own membership index; let them apply the same change
+        ChatWebSocketHandler handler = chatWebSocketHandlerProvider.getIfAvailable();
+        if (handler == null) {
+            return;
+        }
+        handler.broadcast(new ChatWebSocketHandler.Event("group_member", Map.of(
+                "groupId", String.valueOf(groupId),
+                "userId", String.valueOf(userId),
+                "action", action
+        )));
+    }
 }
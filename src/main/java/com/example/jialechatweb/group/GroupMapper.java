@@ -19,6 +19,9 @@ public interface GroupMapper {
     @Select("SELECT user_id FROM group_members WHERE group_id = #{groupId}")
     List<Long> getMemberIds(@Param("groupId") Long groupId);
 
+    @Select("SELECT group_id FROM group_members WHERE user_id = #{userId}")
+    List<Long> getGroupIdsOfUser(@Param("userId") Long userId);
+
     @Select("""
         SELECT g.id, g.name, g.owner_id AS ownerId
         FROM `groups` g
@@ -0,0 +1,105 @@
+package com.example.jialechatweb.group;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory groupId -> member userId index used by the WebSocket fan-out, plus the reverse
+ * userId -> groupIds view used when a user connects.
+ * Both sides are loaded lazily from {@link GroupMapper} on first use and
+ * afterwards kept current by {@link #addMember}/{@link #removeMember}, so delivering
+ * a group message or reconnecting never needs a DB round-trip.
+ */
+@Component
+public class GroupMembershipIndex {
+    private final GroupMapper groupMapper;
+    private final Map<Long, Set<Long>> members = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> groupsByUser = new ConcurrentHashMap<>();
+
+    public GroupMembershipIndex(GroupMapper groupMapper) {
+        this.groupMapper = groupMapper;
+    }
+
+    /**
+     * Live, read-only view of the members of a group. Loads the group on first access.
+     */
+    public Set<Long> members(Long groupId) {
+        return Collections.unmodifiableSet(members.computeIfAbsent(groupId, this::load));
+    }
+
+    public boolean isMember(Long groupId, Long userId) {
+        return members.computeIfAbsent(groupId, this::load).contains(userId);
+    }
+
+    /**
+     * Live, read-only view of the groups a user belongs to. Loads the user on first access.
+     * Only users in at least one group are kept, so the reverse view holds no more entries
+     * than there are memberships.
+     */
+    public Set<Long> groupsOf(Long userId) {
+        Set<Long> groups = groupsByUser.computeIfAbsent(userId, this::loadGroupsOf);
+        return groups == null ? Set.of() : Collections.unmodifiableSet(groups);
+    }
+
+    /**
+     * Registers a freshly created group so its first message does not trigger a load.
+     */
+    public void putGroup(Long groupId, List<Long> memberIds) {
+        Set<Long> set = ConcurrentHashMap.newKeySet();
+        set.addAll(memberIds);
+        members.put(groupId, set);
+        for (Long userId : memberIds) {
+            joined(userId, groupId);
+        }
+    }
+
+    public void addMember(Long groupId, Long userId) {
+        // Groups that were never loaded pick the change up from the DB on first access;
+        // computeIfPresent also waits for an in-flight load of the same group.
+        members.computeIfPresent(groupId, (id, set) -> {
+            set.add(userId);
+            return set;
+        });
+        joined(userId, groupId);
+    }
+
+    public void removeMember(Long groupId, Long userId) {
+        members.computeIfPresent(groupId, (id, set) -> {
+            set.remove(userId);
+            return set;
+        });
+        groupsByUser.computeIfPresent(userId, (id, set) -> {
+            set.remove(groupId);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void joined(Long userId, Long groupId) {
+        groupsByUser.computeIfPresent(userId, (id, set) -> {
+            set.add(groupId);
+            return set;
+        });
+    }
+
+    private Set<Long> load(Long groupId) {
+        Set<Long> set = ConcurrentHashMap.newKeySet();
+        set.addAll(groupMapper.getMemberIds(groupId));
+        return set;
+    }
+
+    // Null (not cached) for a user without groups; their first join is loaded from the DB
+    private Set<Long> loadGroupsOf(Long userId) {
+        List<Long> groupIds = groupMapper.getGroupIdsOfUser(userId);
+        if (groupIds.isEmpty()) {
+            return null;
+        }
+        Set<Long> set = ConcurrentHashMap.newKeySet();
+        set.addAll(groupIds);
+        return set;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.jialechatweb.oss;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses presigned OSS URLs per object key until shortly before they expire.
+ * <p>
+ * Signing is an HMAC over the request and ran for every avatar on every history page and group
+ * message. A URL is valid for {@code aliyun.oss.url-expiration-seconds}; it is handed out again
+ * until {@code refresh-margin-seconds} before that, so a client never receives a URL that dies
+ * while it is still on screen. Avatar keys are immutable (a new upload gets a new key), so
+ * entries never go stale except by time. Past {@code max-entries} the cache is emptied rather
+ * than tracked per entry; re-signing is cheap enough that this only costs a burst of HMACs.
+ */
+@Component
+public class SignedUrlCache {
+    private final OssService ossService;
+    private final long lifetimeMillis;
+    private final int maxEntries;
+    private final Map<String, SignedUrl> urls = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record SignedUrl(String url, long reuseUntil) {}
+
+    public SignedUrlCache(OssService ossService,
+                          @Value("${aliyun.oss.url-expiration-seconds:604800}") long expirationSeconds,
+                          @Value("${chat.cache.signed-url.refresh-margin-seconds:3600}") long refreshMarginSeconds,
+                          @Value("${chat.cache.signed-url.max-entries:50000}") int maxEntries) {
+        this.ossService = ossService;
+        // A margin that eats the whole lifetime disables reuse instead of handing out expired URLs
+        this.lifetimeMillis = Math.max(0, expirationSeconds - refreshMarginSeconds) * 1000;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Same result as {@link OssService#generateSignedUrl}: null and absolute URLs pass through.
+     */
+    public String sign(String objectKey) {
+        if (objectKey == null || objectKey.startsWith("http")) {
+            return objectKey;
+        }
+        long now = System.currentTimeMillis();
+        SignedUrl cached = urls.get(objectKey);
+        if (cached != null && now < cached.reuseUntil()) {
+            hits.increment();
+            return cached.url();
+        }
+        misses.increment();
+        // Taken before signing, so the reuse window never outlives the URL's real expiry
+        String url = ossService.generateSignedUrl(objectKey);
+        if (lifetimeMillis > 0) {
+            if (urls.size() >= maxEntries) {
+                urls.clear();
+            }
+            urls.put(objectKey, new SignedUrl(url, now + lifetimeMillis));
+        }
+        return url;
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of("entries", urls.size(), "hits", hits.sum(), "misses", misses.sum());
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.jialechatweb.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process {@link RateLimitStore}. Every limit gets a fixed number of stripes, each an
+ * open-addressing table of parallel {@code long[]} arrays guarded by its own monitor, so a check
+ * allocates nothing and contends only with keys hashed to the same stripe. Keys whose timestamp
+ * has passed are indistinguishable from absent ones; {@link #evictExpired} drops them and shrinks
+ * the tables, and a stripe that fills up does the same before growing.
+ */
+class LocalRateLimitStore implements RateLimitStore {
+    private static final int STRIPES = 32;
+    private static final int STRIPE_SHIFT = 64 - 5;
+    private static final int MIN_CAPACITY = 16;
+
+    private final Map<String, Stripe[]> tables = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    LocalRateLimitStore() {
+        this(monotonicMillis());
+    }
+
+    LocalRateLimitStore(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public long acquire(RateLimit limit, long a, long b) {
+        Stripe[] stripes = tables.computeIfAbsent(limit.name(), k -> newStripes());
+        long h = mix(a, b);
+        Stripe stripe = stripes[(int) (h >>> STRIPE_SHIFT)];
+        long now = clock.getAsLong();
+        synchronized (stripe) {
+            return stripe.acquire(a, b, (int) h, now, limit);
+        }
+    }
+
+    /**
+     * Drops keys whose limit has fully recovered.
+     *
+     * @return the number of keys still tracked
+     */
+    int evictExpired() {
+        long now = clock.getAsLong();
+        int live = 0;
+        for (Stripe[] stripes : tables.values()) {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.rebuild(now);
+                    live += stripe.size;
+                }
+            }
+        }
+        return live;
+    }
+
+    int size() {
+        int n = 0;
+        for (Stripe[] stripes : tables.values()) {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    n += stripe.size;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static Stripe[] newStripes() {
+        Stripe[] stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(MIN_CAPACITY);
+        }
+        return stripes;
+    }
+
+    // Millisecond clock that never goes backwards and starts at 1, so 0 can mark an empty slot
+    private static LongSupplier monotonicMillis() {
+        long origin = System.nanoTime();
+        return () -> (System.nanoTime() - origin) / 1_000_000 + 1;
+    }
+
+    static long mix(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Stripe {
+        long[] as;
+        long[] bs;
+        // Theoretical arrival time of the key's next request; 0 = empty slot
+        long[] tats;
+        int size;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        long acquire(long a, long b, int h, long now, RateLimit limit) {
+            int mask = tats.length - 1;
+            int i = h & mask;
+            while (tats[i] != 0) {
+                if (as[i] == a && bs[i] == b) {
+                    long next = Math.max(tats[i], now) + limit.emissionIntervalMillis();
+                    long wait = next - now - limit.toleranceMillis();
+                    if (wait > 0) {
+                        return wait;
+                    }
+                    tats[i] = next;
+                    return 0;
+                }
+                i = (i + 1) & mask;
+            }
+            if ((size + 1) * 2 > tats.length) {
+                rebuild(now);
+                return acquire(a, b, h, now, limit);
+            }
+            // A key seen for the first time always fits: the tolerance is at least one interval
+            as[i] = a;
+            bs[i] = b;
+            tats[i] = now + limit.emissionIntervalMillis();
+            size++;
+            return 0;
+        }
+
+        /**
+         * Re-inserts the keys still ahead of {@code now} into a table sized for them, which both
+         * evicts expired keys and grows or shrinks the stripe.
+         */
+        void rebuild(long now) {
+            long[] oldAs = as;
+            long[] oldBs = bs;
+            long[] oldTats = tats;
+            int live = 0;
+            for (long tat : oldTats) {
+                if (tat > now) {
+                    live++;
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (capacity < live * 4) {
+                capacity <<= 1;
+            }
+            if (live == size && capacity == oldTats.length) {
+                return;
+            }
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldTats.length; j++) {
+                if (oldTats[j] > now) {
+                    int i = (int) mix(oldAs[j], oldBs[j]) & mask;
+                    while (tats[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    as[i] = oldAs[j];
+                    bs[i] = oldBs[j];
+                    tats[i] = oldTats[j];
+                }
+            }
+            size = live;
+        }
+
+        private void allocate(int capacity) {
+            as = new long[capacity];
+            bs = new long[capacity];
+            tats = new long[capacity];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.jialechatweb.ratelimit;
+
+import java.time.Duration;
+
+/**
+ * A named GCRA limit: on average one request per {@code emissionIntervalMillis}, with up to
+ * {@code burst} requests allowed back to back after a quiet period. Each key's whole state is
+ * one timestamp (the theoretical arrival time of its next request), which expires by itself
+ * once it lies in the past.
+ *
+ * @param name                   distinguishes limits that share keys, e.g. per-user limits
+ * @param emissionIntervalMillis period / limit
+ * @param toleranceMillis        emission interval x burst; how far ahead of now a key may run
+ */
+public record RateLimit(String name, long emissionIntervalMillis, long toleranceMillis) {
+
+    /**
+     * {@code limit} requests per {@code period}, the first {@code burst} of which may come at once.
+     */
+    public static RateLimit of(String name, int limit, Duration period, int burst) {
+        long interval = Math.max(1, period.toMillis() / Math.max(1, limit));
+        return new RateLimit(name, interval, interval * Math.max(1, burst));
+    }
+
+    /**
+     * At most one request per {@code interval}.
+     */
+    public static RateLimit minInterval(String name, Duration interval) {
+        return of(name, 1, interval, 1);
+    }
+}
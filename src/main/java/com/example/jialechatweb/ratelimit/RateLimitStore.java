@@ -0,0 +1,15 @@
+package com.example.jialechatweb.ratelimit;
+
+/**
+ * Where GCRA state lives. A key is a pair of longs (e.g. user id and target id; 0 when the limit
+ * has only one dimension).
+ */
+interface RateLimitStore {
+
+    /**
+     * Takes one request for the key if the limit allows it.
+     *
+     * @return 0 if allowed, otherwise how many milliseconds until the next request would be
+     */
+    long acquire(RateLimit limit, long a, long b);
+}
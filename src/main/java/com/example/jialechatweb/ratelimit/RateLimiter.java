@@ -0,0 +1,75 @@
+package com.example.jialechatweb.ratelimit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks {@link RateLimit}s for long keys. With Redis and {@code chat.ratelimit.cluster} the
+ * limits hold across all nodes; otherwise, and whenever Redis fails, each node enforces them on
+ * its own, which at worst lets a client through once per node.
+ */
+@Component
+public class RateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    private final LocalRateLimitStore local = new LocalRateLimitStore();
+    private final RateLimitStore cluster;
+    private volatile boolean clusterDown;
+
+    public RateLimiter(ObjectProvider<RedisRateLimitStore> redisStoreProvider,
+                       @Value("${chat.ratelimit.cluster:true}") boolean clusterWide) {
+        this.cluster = clusterWide ? redisStoreProvider.getIfAvailable() : null;
+    }
+
+    public boolean tryAcquire(RateLimit limit, long key) {
+        return acquire(limit, key, 0) == 0;
+    }
+
+    public boolean tryAcquire(RateLimit limit, long a, long b) {
+        return acquire(limit, a, b) == 0;
+    }
+
+    /**
+     * @return 0 if the request is allowed, otherwise the milliseconds until one would be
+     */
+    public long acquire(RateLimit limit, long a, long b) {
+        if (cluster != null) {
+            try {
+                long wait = cluster.acquire(limit, a, b);
+                if (clusterDown) {
+                    clusterDown = false;
+                    log.info("Cluster rate limits restored");
+                }
+                return wait;
+            } catch (RuntimeException e) {
+                // Logged once per outage; this sits on hot paths
+                if (!clusterDown) {
+                    clusterDown = true;
+                    log.warn("Cluster rate limits unavailable, enforcing locally: {}", e.getMessage());
+                }
+            }
+        }
+        return local.acquire(limit, a, b);
+    }
+
+    /**
+     * Like {@link #acquire} but always against this node's tables, for limits too hot for a Redis
+     * round trip per check.
+     */
+    public long acquireLocal(RateLimit limit, long a, long b) {
+        return local.acquire(limit, a, b);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.ratelimit.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        local.evictExpired();
+    }
+
+    public int localKeys() {
+        return local.size();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.jialechatweb.ratelimit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@link RateLimitStore} shared by all nodes: one string key {@code rl:<limit>:<a>:<b>} per key
+ * holding its GCRA timestamp, checked and advanced by a single script call. The script reads the
+ * Redis server clock, so nodes with skewed clocks still agree, and lets the key expire exactly
+ * when its limit has recovered.
+ */
+@Component
+@Profile("!test")
+@ConditionalOnProperty(name = "spring.data.redis.enabled", havingValue = "true", matchIfMissing = false)
+public class RedisRateLimitStore implements RateLimitStore {
+    // KEYS: the limit key; ARGV: emission interval ms, tolerance ms.
+    // Returns 0 if allowed, else the ms to wait.
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>("""
+            local t = redis.call('TIME')
+            local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            local interval = tonumber(ARGV[1])
+            local tat = tonumber(redis.call('GET', KEYS[1]) or now)
+            if tat < now then tat = now end
+            local nxt = tat + interval
+            local wait = nxt - now - tonumber(ARGV[2])
+            if wait > 0 then return wait end
+            redis.call('SET', KEYS[1], nxt, 'PX', nxt - now)
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisRateLimitStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public long acquire(RateLimit limit, long a, long b) {
+        Long wait = redisTemplate.execute(ACQUIRE, List.of("rl:" + limit.name() + ":" + a + ":" + b),
+                String.valueOf(limit.emissionIntervalMillis()), String.valueOf(limit.toleranceMillis()));
+        return wait == null ? 0 : wait;
+    }
+}
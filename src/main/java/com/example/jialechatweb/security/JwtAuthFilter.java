@@ -1,11 +1,13 @@
 package com.example.jialechatweb.security;
 
-import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
@@ -14,14 +16,26 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Component
 public class JwtAuthFilter extends OncePerRequestFilter {
+    private static final List<GrantedAuthority> ADMIN = List.of(new SimpleGrantedAuthority("ROLE_ADMIN"));
+
     private final JwtService jwtService;
+    private final Set<String> adminUsernames;
 
-    public JwtAuthFilter(JwtService jwtService) {
+    public JwtAuthFilter(JwtService jwtService,
+                         @Value("${security.admin-usernames:}") String adminUsernames) {
         this.jwtService = jwtService;
+        this.adminUsernames = Arrays.stream(adminUsernames.split(","))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     @Override
@@ -34,13 +48,13 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         }
         try {
             if (token != null) {
-                Claims claims = jwtService.parse(token);
-                Long userId = Long.valueOf(claims.getSubject());
-                String username = claims.get("username", String.class);
+                JwtService.VerifiedToken verified = jwtService.verify(token);
+                Long userId = verified.userId();
+                String username = verified.username();
                 UserDetails principal = org.springframework.security.core.userdetails.User
                         .withUsername(username)
                         .password("")
-                        .authorities(Collections.emptyList())
+                        .authorities(adminUsernames.contains(username) ? ADMIN : Collections.emptyList())
                         .build();
                 UsernamePasswordAuthenticationToken authentication =
                         new UsernamePasswordAuthenticationToken(principal, token, principal.getAuthorities());
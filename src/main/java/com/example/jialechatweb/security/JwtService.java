@@ -1,30 +1,62 @@
 package com.example.jialechatweb.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class JwtService {
     private final SecretKey key;
     private final long expirationMillis;
     private final String issuer;
+    // Immutable and thread-safe once built
+    private final JwtParser parser;
+    private final int cacheMaxEntries;
+    private final Map<TokenKey, VerifiedToken> verified = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * What a valid token says about its bearer.
+     */
+    public record VerifiedToken(Long userId, String username, long expiresAtMillis) {}
+
+    // First 128 bits of SHA-256(token); the raw bearer token is never kept in memory
+    private record TokenKey(long hi, long lo) {}
 
     public JwtService(
             @Value("${security.jwt.secret}") String secret,
             @Value("${security.jwt.expiration-minutes}") long expirationMinutes,
-            @Value("${security.jwt.issuer}") String issuer) {
+            @Value("${security.jwt.issuer}") String issuer,
+            @Value("${security.jwt.cache.max-entries:100000}") int cacheMaxEntries) {
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
         this.expirationMillis = expirationMinutes * 60_000;
         this.issuer = issuer;
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.cacheMaxEntries = Math.max(0, cacheMaxEntries);
     }
 
     public String createToken(String subject, Map<String, Object> claims) {
@@ -40,10 +72,64 @@ public class JwtService {
     }
 
     public Claims parse(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    /**
+     * Like {@link #parse} but remembers tokens that already passed verification until they expire,
+     * so a client presenting the same token on every request or reconnect pays for the HMAC and
+     * the claims parse once. Throws the same exceptions as {@link #parse} for invalid tokens.
+     */
+    public VerifiedToken verify(String token) {
+        TokenKey cacheKey = cacheMaxEntries > 0 ? keyOf(token) : null;
+        long now = System.currentTimeMillis();
+        if (cacheKey != null) {
+            VerifiedToken hit = verified.get(cacheKey);
+            if (hit != null) {
+                if (now < hit.expiresAtMillis()) {
+                    cacheHits.increment();
+                    return hit;
+                }
+                verified.remove(cacheKey);
+            }
+        }
+        cacheMisses.increment();
+        Claims claims = parse(token);
+        Date expiration = claims.getExpiration();
+        VerifiedToken result = new VerifiedToken(Long.valueOf(claims.getSubject()), claims.get("username", String.class),
+                expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+        // Tokens without an expiry are verified every time rather than cached forever
+        if (cacheKey != null && expiration != null) {
+            if (verified.size() >= cacheMaxEntries) {
+                makeRoom(now);
+            }
+            verified.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    public Map<String, Object> cacheStats() {
+        return Map.of("entries", verified.size(), "hits", cacheHits.sum(), "misses", cacheMisses.sum());
+    }
+
+    /**
+     * Drops expired tokens and then arbitrary ones (iteration order is by hash, so effectively
+     * random) until an eighth of the capacity is free. The scan is O(n), but the room it makes
+     * lets the next n/8 misses insert without scanning, so a reconnect storm with more distinct
+     * tokens than the cache holds costs O(1) per token on average.
+     */
+    private void makeRoom(long now) {
+        int target = cacheMaxEntries - Math.max(1, cacheMaxEntries / 8);
+        verified.values().removeIf(v -> v.expiresAtMillis() <= now);
+        Iterator<TokenKey> it = verified.keySet().iterator();
+        while (verified.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static TokenKey keyOf(String token) {
+        ByteBuffer digest = ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+        return new TokenKey(digest.getLong(), digest.getLong());
     }
 }
@@ -45,6 +45,8 @@ public class SecurityConfig {
                                 "/ws/**"
                         ).permitAll()
                         .requestMatchers(HttpMethod.GET, "/files/**").permitAll()
+                        // node-wide queue depths, cache sizes and session counts are operator data
+                        .requestMatchers("/api/ws/metrics", "/api/messages/cache/stats").hasRole("ADMIN")
                         .anyRequest().authenticated()
                 )
                 .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
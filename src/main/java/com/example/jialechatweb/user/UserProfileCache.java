@@ -0,0 +1,131 @@
+package com.example.jialechatweb.user;
+
+import com.example.jialechatweb.oss.SignedUrlCache;
+import com.example.jialechatweb.util.ConcurrentLongObjectMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The public part of a user (display name and avatar) as stamped on group messages, so the send
+ * path and history pages do not query {@code users} per message.
+ * <p>
+ * {@link UserService} evicts an entry when the user changes their name or avatar, both right away
+ * and again after the transaction commits, so a concurrent reload cannot re-cache the old row.
+ * Other nodes only learn about a change when their entry expires after {@code ttl-seconds}.
+ * At {@code max-entries} one sweep drops expired entries and then arbitrary ones until an eighth
+ * of the capacity is free, so the sweep's cost is spread over the inserts that follow.
+ */
+@Component
+public class UserProfileCache {
+    private final UserMapper userMapper;
+    private final SignedUrlCache signedUrls;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final ConcurrentLongObjectMap<Entry> profiles = new ConcurrentLongObjectMap<>(1024);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public record Profile(long id, String username, String displayName, String avatarKey) {}
+
+    private record Entry(Profile profile, long loadedAt) {}
+
+    public UserProfileCache(UserMapper userMapper,
+                            SignedUrlCache signedUrls,
+                            @Value("${chat.cache.profile.ttl-seconds:300}") long ttlSeconds,
+                            @Value("${chat.cache.profile.max-entries:100000}") int maxEntries) {
+        this.userMapper = userMapper;
+        this.signedUrls = signedUrls;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * The user's profile, or null if the user does not exist.
+     */
+    public Profile get(long userId) {
+        long now = System.nanoTime();
+        Entry entry = profiles.get(userId);
+        if (entry != null && now - entry.loadedAt() < ttlNanos) {
+            hits.increment();
+            return entry.profile();
+        }
+        misses.increment();
+        User user = userMapper.findById(userId).orElse(null);
+        if (user == null) {
+            profiles.remove(userId);
+            return null;
+        }
+        Profile profile = new Profile(userId, user.getUsername(), user.getDisplayName(), user.getAvatarUrl());
+        store(profile, entry != null, now);
+        return profile;
+    }
+
+    /**
+     * Caches a profile that was just read from {@code users} as part of another query (e.g. a
+     * join), unless a fresh entry exists already.
+     */
+    public void prime(Profile profile) {
+        long now = System.nanoTime();
+        Entry entry = profiles.get(profile.id());
+        if (entry == null || now - entry.loadedAt() >= ttlNanos) {
+            store(profile, entry != null, now);
+        }
+    }
+
+    private void store(Profile profile, boolean replacing, long now) {
+        if (!replacing && profiles.size() >= maxEntries) {
+            makeRoom(now);
+        }
+        profiles.put(profile.id(), new Entry(profile, now));
+    }
+
+    private void makeRoom(long now) {
+        int excess = profiles.size() - (maxEntries - Math.max(1, maxEntries / 8));
+        // forEach holds segment locks, so collect first and remove afterwards
+        List<Long> expired = new ArrayList<>();
+        List<Long> others = new ArrayList<>();
+        profiles.forEach((id, e) -> {
+            if (now - e.loadedAt() >= ttlNanos) {
+                expired.add(id);
+            } else if (others.size() < excess) {
+                others.add(id);
+            }
+        });
+        expired.forEach(profiles::remove);
+        for (int i = 0; i < others.size() && i < excess - expired.size(); i++) {
+            profiles.remove(others.get(i));
+        }
+    }
+
+    /**
+     * Presigned URL of the user's avatar, reused until shortly before it expires; null if none.
+     */
+    public String avatarUrl(Profile profile) {
+        return profile == null ? null : signedUrls.sign(profile.avatarKey());
+    }
+
+    public void evict(long userId) {
+        profiles.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    profiles.remove(userId);
+                }
+            });
+        }
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of("entries", profiles.size(), "hits", hits.sum(), "misses", misses.sum());
+    }
+}
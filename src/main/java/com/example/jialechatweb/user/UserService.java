@@ -11,11 +11,14 @@ public class UserService {
     private final UserMapper userMapper;
     private final PasswordEncoder passwordEncoder;
     private final com.example.jialechatweb.group.GroupMapper groupMapper;
+    private final UserProfileCache profileCache;
 
-    public UserService(UserMapper userMapper, PasswordEncoder passwordEncoder, com.example.jialechatweb.group.GroupMapper groupMapper) {
+    public UserService(UserMapper userMapper, PasswordEncoder passwordEncoder, com.example.jialechatweb.group.GroupMapper groupMapper,
+                       UserProfileCache profileCache) {
         this.userMapper = userMapper;
         this.passwordEncoder = passwordEncoder;
         this.groupMapper = groupMapper;
+        this.profileCache = profileCache;
     }
 
     public Optional<User> findByUsername(String username) {
@@ -91,11 +94,13 @@ public class UserService {
     public void updateAvatar(Long userId, String avatarKey) {
         userMapper.updateAvatar(userId, avatarKey);
         userMapper.insertAvatarHistory(userId, avatarKey);
+        profileCache.evict(userId);
     }
 
     @Transactional
     public void updateDisplayName(Long userId, String displayName) {
         userMapper.updateDisplayName(userId, displayName);
+        profileCache.evict(userId);
     }
 
     @Transactional
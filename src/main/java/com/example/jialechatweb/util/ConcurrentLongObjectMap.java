@@ -0,0 +1,357 @@
+package com.example.jialechatweb.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent map from primitive {@code long} keys to objects.
+ * <p>
+ * The key space is split over a fixed number of segments, each an open-addressing table with
+ * linear probing guarded by a {@link StampedLock}. {@link #get} first tries an optimistic read,
+ * so lookups neither box the key nor take a lock in the common case. Writes lock one segment.
+ * Null values are not supported.
+ */
+public class ConcurrentLongObjectMap<V> {
+    private static final int SEGMENTS = 16;
+    private static final int SEGMENT_SHIFT = 64 - 4;
+    // Copy buffers of forEachSnapshot, reused by each thread so a walk allocates nothing
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    @FunctionalInterface
+    public interface LongObjectConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    @FunctionalInterface
+    public interface LongObjectRemapper<V> {
+        /**
+         * Returns the new value for the key, or null to remove it. {@code current} is null if absent.
+         */
+        V apply(long key, V current);
+    }
+
+    @SuppressWarnings("unchecked")
+    private final Segment<V>[] segments = new Segment[SEGMENTS];
+
+    public ConcurrentLongObjectMap() {
+        this(64);
+    }
+
+    public ConcurrentLongObjectMap(int expectedSize) {
+        int perSegment = Math.max(4, expectedSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    public V get(long key) {
+        long h = mix(key);
+        Segment<V> seg = segments[(int) (h >>> SEGMENT_SHIFT)];
+        StampedLock lock = seg.lock;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            V v = seg.table.find(key, h);
+            if (lock.validate(stamp)) {
+                return v;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return seg.table.find(key, h);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        long h = mix(key);
+        Segment<V> seg = segments[(int) (h >>> SEGMENT_SHIFT)];
+        long stamp = seg.lock.writeLock();
+        try {
+            return seg.put(key, h, value);
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(long key) {
+        long h = mix(key);
+        Segment<V> seg = segments[(int) (h >>> SEGMENT_SHIFT)];
+        long stamp = seg.lock.writeLock();
+        try {
+            return seg.table.remove(key, h, seg);
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Atomically replaces the value of a key. The remapper runs under the segment lock, so it
+     * must be short and must not touch this map.
+     */
+    public V compute(long key, LongObjectRemapper<V> remapper) {
+        long h = mix(key);
+        Segment<V> seg = segments[(int) (h >>> SEGMENT_SHIFT)];
+        long stamp = seg.lock.writeLock();
+        try {
+            V current = seg.table.find(key, h);
+            V next = remapper.apply(key, current);
+            if (next == null) {
+                if (current != null) {
+                    seg.table.remove(key, h, seg);
+                }
+            } else if (next != current) {
+                seg.put(key, h, next);
+            }
+            return next;
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment<V> seg : segments) {
+            n += seg.size;
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Visits every entry, holding each segment's read lock while it is walked. The action must
+     * not write to this map.
+     */
+    public void forEach(LongObjectConsumer<? super V> action) {
+        for (Segment<V> seg : segments) {
+            long stamp = seg.lock.readLock();
+            try {
+                seg.table.forEach(action);
+            } finally {
+                seg.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    public void forEachValue(Consumer<? super V> action) {
+        forEach((k, v) -> action.accept(v));
+    }
+
+    /**
+     * Visits every entry without holding any lock while the action runs: each segment is copied
+     * under its read lock and the copy is walked afterwards. The action may write to this map
+     * (directly or through callbacks it triggers) and sees entries as of the copy, so it can be
+     * handed values that were removed in the meantime.
+     * <p>
+     * The copy goes into buffers kept per thread and grown to the largest segment seen, so a
+     * walk allocates nothing once warmed up. A walk started from inside another walk's action
+     * on the same thread uses buffers of its own.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachSnapshot(LongObjectConsumer<? super V> action) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.inUse) {
+            scratch = new Scratch();
+        }
+        scratch.inUse = true;
+        try {
+            for (Segment<V> seg : segments) {
+                int n;
+                long stamp = seg.lock.readLock();
+                try {
+                    n = seg.size;
+                    if (n == 0) {
+                        continue;
+                    }
+                    scratch.ensure(n);
+                    Table<V> table = seg.table;
+                    int j = 0;
+                    for (int i = 0; i < table.values.length; i++) {
+                        Object v = table.values[i];
+                        if (v != null) {
+                            scratch.keys[j] = table.keys[i];
+                            scratch.values[j++] = v;
+                        }
+                    }
+                } finally {
+                    seg.lock.unlockRead(stamp);
+                }
+                try {
+                    for (int j = 0; j < n; j++) {
+                        action.accept(scratch.keys[j], (V) scratch.values[j]);
+                    }
+                } finally {
+                    // Don't keep values reachable from an idle thread
+                    Arrays.fill(scratch.values, 0, n, null);
+                }
+            }
+        } finally {
+            scratch.inUse = false;
+        }
+    }
+
+    static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Scratch {
+        long[] keys = new long[16];
+        Object[] values = new Object[16];
+        boolean inUse;
+
+        void ensure(int n) {
+            if (keys.length < n) {
+                int cap = Integer.highestOneBit(n - 1) << 1;
+                keys = new long[cap];
+                values = new Object[cap];
+            }
+        }
+    }
+
+    private static final class Segment<V> {
+        final StampedLock lock = new StampedLock();
+        Table<V> table;
+        volatile int size;
+
+        Segment(int expected) {
+            int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+            table = new Table<>(cap);
+        }
+
+        V put(long key, long h, V value) {
+            V prev = table.put(key, h, value);
+            if (prev == null) {
+                size++;
+                if (size * 4 > table.keys.length * 3) {
+                    table = table.resize();
+                }
+            }
+            return prev;
+        }
+    }
+
+    /**
+     * One immutable-shape table; resizing swaps in a new instance so optimistic readers always
+     * see key and value arrays of the same length.
+     */
+    private static final class Table<V> {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V find(long key, long h) {
+            int i = (int) h & mask;
+            // Bounded so an optimistic reader racing a writer cannot spin forever
+            for (int n = 0; n <= mask; n++) {
+                Object v = values[i];
+                if (v == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return (V) v;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(long key, long h, V value) {
+            int i = (int) h & mask;
+            while (true) {
+                Object v = values[i];
+                if (v == null) {
+                    keys[i] = key;
+                    values[i] = value;
+                    return null;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return (V) v;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(long key, long h, Segment<V> seg) {
+            int i = (int) h & mask;
+            while (true) {
+                Object v = values[i];
+                if (v == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    shiftBack(i);
+                    seg.size--;
+                    return (V) v;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        /**
+         * Backward-shift deletion: pulls later entries of the probe run into the hole so no
+         * tombstones are needed.
+         */
+        private void shiftBack(int hole) {
+            int i = hole;
+            while (true) {
+                i = (i + 1) & mask;
+                Object v = values[i];
+                if (v == null) {
+                    break;
+                }
+                int home = (int) mix(keys[i]) & mask;
+                // Move the entry if its home slot is not inside the cyclic range (hole, i]
+                boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+                if (movable) {
+                    keys[hole] = keys[i];
+                    values[hole] = v;
+                    hole = i;
+                }
+            }
+            values[hole] = null;
+            keys[hole] = 0L;
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(LongObjectConsumer<? super V> action) {
+            for (int i = 0; i < values.length; i++) {
+                Object v = values[i];
+                if (v != null) {
+                    action.accept(keys[i], (V) v);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Table<V> resize() {
+            Table<V> next = new Table<>(keys.length << 1);
+            for (int i = 0; i < values.length; i++) {
+                Object v = values[i];
+                if (v != null) {
+                    next.put(keys[i], mix(keys[i]), (V) v);
+                }
+            }
+            return next;
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.example.jialechatweb.ws;
 
 import com.example.jialechatweb.security.JwtService;
-import com.example.jialechatweb.user.UserService;
-import io.jsonwebtoken.Claims;
+import com.example.jialechatweb.user.UserProfileCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -20,11 +19,11 @@ import java.util.Map;
 public class AuthHandshakeInterceptor implements HandshakeInterceptor {
     private static final Logger logger = LoggerFactory.getLogger(AuthHandshakeInterceptor.class);
     private final JwtService jwtService;
-    private final UserService userService;
+    private final UserProfileCache profileCache;
 
-    public AuthHandshakeInterceptor(JwtService jwtService, UserService userService) {
+    public AuthHandshakeInterceptor(JwtService jwtService, UserProfileCache profileCache) {
         this.jwtService = jwtService;
-        this.userService = userService;
+        this.profileCache = profileCache;
     }
 
     @Override
@@ -39,18 +38,22 @@ public class AuthHandshakeInterceptor implements HandshakeInterceptor {
             }
             try {
                 if (StringUtils.hasText(auth)) {
-                    Claims claims = jwtService.parse(auth);
-                    Long userId = Long.valueOf(claims.getSubject());
-                    
-                    // Verify user exists in DB
-                    if (userService.findById(userId).isEmpty()) {
+                    JwtService.VerifiedToken verified = jwtService.verify(auth);
+                    Long userId = verified.userId();
+
+                    // Verify the user still exists; served from the profile cache on reconnects
+                    if (profileCache.get(userId) == null) {
                         logger.warn("WebSocket handshake failed: User ID {} not found in database", userId);
                         response.setStatusCode(HttpStatus.UNAUTHORIZED);
                         return false;
                     }
 
                     attributes.put("userId", userId);
-                    attributes.put("username", claims.get("username", String.class));
+                    attributes.put("username", verified.username());
+                    // Frame encoding for this connection; browsers stay on JSON
+                    attributes.put(WireFormat.ATTRIBUTE, WireFormat.fromParam(servlet.getServletRequest().getParameter("format")));
+                    // Client can unpack {"type":"batch"} frames; see OutboundDispatcher
+                    attributes.put(OutboundSession.BATCH_ATTRIBUTE, "1".equals(servlet.getServletRequest().getParameter("batch")));
                     return true;
                 } else {
                     logger.warn("WebSocket handshake failed: No token provided");
@@ -0,0 +1,49 @@
+package com.example.jialechatweb.ws;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
+
+/**
+ * Decides per connection whether permessage-deflate is negotiated.
+ * <p>
+ * Compression is on whenever the client offers it and {@code chat.ws.permessage-deflate} is
+ * enabled; a client can still decline with {@code /ws?deflate=0} (e.g. devices where CPU matters
+ * more than bytes). Chat frames are small but highly repetitive JSON/CBOR, so deflate with
+ * context takeover usually shrinks them several-fold.
+ */
+@Component
+@Profile("!test")
+public class ChatHandshakeHandler extends DefaultHandshakeHandler {
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean deflateEnabled;
+
+    public ChatHandshakeHandler(@Value("${chat.ws.permessage-deflate:true}") boolean deflateEnabled) {
+        this.deflateEnabled = deflateEnabled;
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requested,
+                                                                 List<WebSocketExtension> supported) {
+        List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requested, supported);
+        if (deflateEnabled && !declined(request)) {
+            return accepted;
+        }
+        return accepted.stream()
+                .filter(ext -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(ext.getName()))
+                .toList();
+    }
+
+    private static boolean declined(ServerHttpRequest request) {
+        return request instanceof ServletServerHttpRequest servlet
+                && "0".equals(servlet.getServletRequest().getParameter("deflate"));
+    }
+}
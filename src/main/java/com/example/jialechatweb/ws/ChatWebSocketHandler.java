@@ -1,49 +1,102 @@
 package com.example.jialechatweb.ws;
 
 import com.example.jialechatweb.chat.ChatMessage;
-import com.example.jialechatweb.chat.MessageMapper;
-import com.example.jialechatweb.oss.OssService;
+import com.example.jialechatweb.chat.ConversationIds;
+import com.example.jialechatweb.chat.MessageTailCache;
+import com.example.jialechatweb.chat.MessageWriteBehind;
+import com.example.jialechatweb.chat.ReadReceiptService;
+import com.example.jialechatweb.chat.UnreadCounterService;
+import com.example.jialechatweb.group.GroupMembershipIndex;
+import com.example.jialechatweb.oss.SignedUrlCache;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 import org.springframework.beans.factory.ObjectProvider;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @Profile("!test")
-public class ChatWebSocketHandler extends TextWebSocketHandler {
+public class ChatWebSocketHandler extends AbstractWebSocketHandler {
+    // Members per offline-queue script call, to keep each Redis call short
+    private static final int OFFLINE_BATCH = 500;
+
+    private static final Logger log = LoggerFactory.getLogger(ChatWebSocketHandler.class);
+
     private final ObjectMapper mapper = new ObjectMapper();
-    private final Map<Long, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    private final MessageMapper messageMapper;
-    private final com.example.jialechatweb.user.UserMapper userMapper;
+    private final MessageWriteBehind messageWriteBehind;
+    private final MessageTailCache tailCache;
+    private final ReadReceiptService readReceiptService;
+    private final UnreadCounterService unreadCounterService;
+    private final com.example.jialechatweb.user.UserProfileCache profileCache;
     private final com.example.jialechatweb.chat.ContentFilterService contentFilterService;
     private final RedisMessaging redisMessaging;
-    private final OssService ossService;
+    private final SignedUrlCache signedUrls;
     private final java.time.Clock clock;
     private final com.example.jialechatweb.util.SnowflakeIdGenerator snowflakeIdGenerator;
+    private final GroupMembershipIndex groupMembershipIndex;
+    private final OutboundDispatcher outboundDispatcher;
+    private final SessionRegistry sessions;
+    private final OfflineDrainer offlineDrainer;
+    private final OnlineCountPublisher onlineCount;
+    private final TypingCoalescer typingCoalescer;
+    private final SendRateLimiter sendRateLimiter;
+    private final com.example.jialechatweb.friend.FriendGraphCache friendGraph;
 
-    public ChatWebSocketHandler(MessageMapper messageMapper, 
-                                com.example.jialechatweb.user.UserMapper userMapper,
+    public ChatWebSocketHandler(MessageWriteBehind messageWriteBehind,
+                                MessageTailCache tailCache,
+                                ReadReceiptService readReceiptService,
+                                UnreadCounterService unreadCounterService,
+                                com.example.jialechatweb.user.UserProfileCache profileCache,
                                 com.example.jialechatweb.chat.ContentFilterService contentFilterService,
                                 ObjectProvider<RedisMessaging> redisMessagingProvider,
-                                OssService ossService,
+                                SignedUrlCache signedUrls,
                                 java.time.Clock clock,
-                                com.example.jialechatweb.util.SnowflakeIdGenerator snowflakeIdGenerator) {
-        this.messageMapper = messageMapper;
-        this.userMapper = userMapper;
+                                com.example.jialechatweb.util.SnowflakeIdGenerator snowflakeIdGenerator,
+                                GroupMembershipIndex groupMembershipIndex,
+                                OutboundDispatcher outboundDispatcher,
+                                SessionRegistry sessionRegistry,
+                                OfflineDrainer offlineDrainer,
+                                OnlineCountPublisher onlineCount,
+                                TypingCoalescer typingCoalescer,
+                                SendRateLimiter sendRateLimiter,
+                                com.example.jialechatweb.friend.FriendGraphCache friendGraph) {
+        this.messageWriteBehind = messageWriteBehind;
+        this.tailCache = tailCache;
+        this.readReceiptService = readReceiptService;
+        this.unreadCounterService = unreadCounterService;
+        this.profileCache = profileCache;
         this.contentFilterService = contentFilterService;
         this.redisMessaging = redisMessagingProvider.getIfAvailable();
-        this.ossService = ossService;
+        this.signedUrls = signedUrls;
         this.clock = clock;
         this.snowflakeIdGenerator = snowflakeIdGenerator;
+        this.groupMembershipIndex = groupMembershipIndex;
+        this.outboundDispatcher = outboundDispatcher;
+        this.sessions = sessionRegistry;
+        this.offlineDrainer = offlineDrainer;
+        this.onlineCount = onlineCount;
+        this.typingCoalescer = typingCoalescer;
+        this.sendRateLimiter = sendRateLimiter;
+        this.friendGraph = friendGraph;
+        this.typingCoalescer.setEmitter(this::emitTyping);
         if (this.redisMessaging != null) {
             this.redisMessaging.setHandler(this::handleBroadcast);
         }
@@ -51,7 +104,121 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        JsonNode node = mapper.readTree(message.getPayload());
+        String payload = message.getPayload();
+        // A flooding client is turned away before its frame is parsed into a tree
+        if (!admit(session, peek(payload))) {
+            markSeen(session);
+            return;
+        }
+        handleFrame(session, mapper.readTree(payload));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        // Clients that negotiated format=cbor; same frames as JSON
+        JsonNode node = WireFormat.readCbor(message.getPayload());
+        JsonNode data = node.path("data");
+        Peek peek = new Peek(node.path("type").asText(), data.path("groupId").asLong(), data.path("receiverId").asLong(),
+                data.hasNonNull("tempId") ? data.get("tempId").asText() : null);
+        if (!admit(session, peek)) {
+            markSeen(session);
+            return;
+        }
+        handleFrame(session, node);
+    }
+
+    /**
+     * What admission needs from a frame: its {@code type} and, for sends, the target and tempId.
+     */
+    private record Peek(String type, long groupId, long receiverId, String tempId) {}
+
+    /**
+     * Reads the frame's {@code type} with a streaming parser that stops as soon as it is found
+     * (clients put it first), unless it is a send; then also the top-level ids of {@code data},
+     * skipping the content. Type is null if the frame has none.
+     */
+    private Peek peek(String payload) throws IOException {
+        String type = null;
+        long groupId = 0;
+        long receiverId = 0;
+        String tempId = null;
+        boolean sawData = false;
+        try (JsonParser parser = mapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new Peek(null, 0, 0, null);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field)) {
+                    type = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    if (sawData || !"send".equals(type)) {
+                        break;
+                    }
+                } else if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.currentName();
+                        if (!parser.nextToken().isScalarValue()) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        switch (name) {
+                            case "groupId" -> groupId = parser.getValueAsLong();
+                            case "receiverId" -> receiverId = parser.getValueAsLong();
+                            case "tempId" -> tempId = parser.getValueAsString();
+                            default -> { }
+                        }
+                    }
+                    sawData = true;
+                    if (type != null) {
+                        break;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new Peek(type, groupId, receiverId, tempId);
+    }
+
+    /**
+     * Applies the sender's per-user budget, then the budget of the target conversation, to
+     * {@code send} frames.
+     */
+    private boolean admit(WebSocketSession session, Peek peek) {
+        if (!"send".equals(peek.type())) {
+            return true;
+        }
+        Long userId = (Long) session.getAttributes().get("userId");
+        long wait = sendRateLimiter.acquireUser(userId);
+        if (wait == 0) {
+            return admitConversation(session, userId, peek);
+        }
+        rateLimited(session, "user", wait, null);
+        return false;
+    }
+
+    /**
+     * Tells the client to back off, once per throttled period rather than per refused frame.
+     */
+    private void rateLimited(WebSocketSession session, String scope, long retryAfterMillis, String tempId) {
+        OutboundSession outbound = (OutboundSession) session.getAttributes().get("outbound");
+        if (outbound == null || !outbound.markRateLimited(TimeUnit.MILLISECONDS.toNanos(retryAfterMillis))) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("scope", scope);
+        data.put("retryAfterMs", retryAfterMillis);
+        if (tempId != null) data.put("tempId", tempId);
+        try {
+            outbound.enqueue(new TextMessage(mapper.writeValueAsString(new Event("rate_limited", data))));
+        } catch (IOException e) {
+            log.error("Failed to serialize rate_limited event", e);
+        }
+    }
+
+    private void handleFrame(WebSocketSession session, JsonNode node) {
+        markSeen(session);
         String type = node.get("type").asText();
         JsonNode data = node.get("data");
         Long senderId = (Long) session.getAttributes().get("userId");
@@ -63,34 +230,54 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    private boolean admitConversation(WebSocketSession session, Long senderId, Peek peek) {
+        long groupId = peek.groupId();
+        long receiverId = peek.receiverId();
+        if (groupId <= 0 && receiverId <= 0) {
+            return true;
+        }
+        long wait = sendRateLimiter.acquireConversation(senderId, groupId > 0 ? -groupId : receiverId);
+        if (wait == 0) {
+            return true;
+        }
+        rateLimited(session, "conversation", wait, peek.tempId());
+        return false;
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        // Answer to PresenceService's heartbeat ping
+        markSeen(session);
+    }
+
+    private static void markSeen(WebSocketSession session) {
+        OutboundSession outbound = (OutboundSession) session.getAttributes().get("outbound");
+        if (outbound != null) {
+            outbound.markSeen();
+        }
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         Long userId = (Long) session.getAttributes().get("userId");
         if (userId != null) {
-            sessions.put(userId, session);
-            System.out.println("WS Connected: User " + userId);
+            OutboundSession outbound = outboundDispatcher.open(session);
+            session.getAttributes().put("outbound", outbound);
+            sessions.register(userId, outbound);
+            log.debug("WS connected: user {} ({} devices)", userId, sessions.sessionsOf(userId).length);
             
             // Mark online
             if (redisMessaging != null) {
+                // Subscribe this node to the user's shard and group channels before anything is published to them
+                redisMessaging.userConnected(userId, groupMembershipIndex.groupsOf(userId));
                 redisMessaging.markUserOnline(userId);
                 
-                // Push offline messages
-                java.util.List<String> offlineMsgs = redisMessaging.getAndClearOfflineMessages(userId);
-                if (!offlineMsgs.isEmpty()) {
-                    for (String msgJson : offlineMsgs) {
-                        try {
-                            // Directly send raw JSON string since it's already serialized
-                            synchronized (session) {
-                                session.sendMessage(new TextMessage(msgJson));
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+                // Push offline messages in chunks, off the handshake thread
+                offlineDrainer.start(userId);
             }
-            
-            broadcastOnlineCount();
+
+            // Everyone else picks the change up from the next debounced count
+            onlineCount.sendCurrent(outbound);
         }
     }
 
@@ -99,20 +286,27 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
         Long userId = (Long) session.getAttributes().get("userId");
         if (userId != null) {
-            sessions.remove(userId);
-            if (redisMessaging != null) {
+            OutboundSession outbound = (OutboundSession) session.getAttributes().get("outbound");
+            boolean lastDevice = false;
+            if (outbound != null) {
+                outbound.close();
+                lastDevice = sessions.unregister(userId, outbound);
+            }
+            if (redisMessaging != null && outbound != null) {
+                redisMessaging.userDisconnected(userId);
+            }
+            // Other tabs/phones of the same user keep them online
+            if (redisMessaging != null && lastDevice) {
                 redisMessaging.markUserOffline(userId);
             }
-            System.out.println("WS Closed: User " + userId + " Status: " + status);
-            broadcastOnlineCount();
+            log.debug("WS closed: user {} status {}", userId, status);
         }
     }
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) {
         Long userId = (Long) session.getAttributes().get("userId");
-        System.err.println("WS Error: User " + userId + " - " + exception.getMessage());
-        exception.printStackTrace();
+        log.warn("WS transport error for user {}: {}", userId, exception.getMessage(), exception);
     }
 
     private void handleSend(Long senderId, JsonNode data) {
@@ -120,6 +314,19 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         Long groupId = data.hasNonNull("groupId") ? data.get("groupId").asLong() : null;
 
         if (receiverId == null && groupId == null) return;
+        // One-to-one messages only go to friends; answered from the friend graph cache
+        if (groupId == null && !friendGraph.canMessage(senderId, receiverId)) {
+            rejectSend(senderId, data.hasNonNull("tempId") ? data.get("tempId").asText() : null, "not_friends");
+            return;
+        }
+        // Group messages only from members; the public channel (group 1) is open to everyone
+        if (groupId != null && groupId != 1L && !groupMembershipIndex.isMember(groupId, senderId)) {
+            rejectSend(senderId, data.hasNonNull("tempId") ? data.get("tempId").asText() : null, "not_member");
+            return;
+        }
+        typingCoalescer.messageSent(groupId != null
+                ? new TypingCoalescer.Target(senderId, true, groupId)
+                : new TypingCoalescer.Target(senderId, false, receiverId));
 
         String content = data.get("content").asText();
         if (content == null || content.trim().isEmpty() || content.length() > 1000) {
@@ -141,9 +348,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         } else {
             // P2P chat
             if (receiverId != null) {
-                long min = Math.min(senderId, receiverId);
-                long max = Math.max(senderId, receiverId);
-                conversationId = (min << 32) | (max & 0xFFFFFFFFL);
+                conversationId = ConversationIds.of(senderId, receiverId);
                 msg.setConversationId(conversationId);
             }
         }
@@ -154,9 +359,52 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         // Fix: Set createdAt using NTP clock to ensure consistent timezone (UTC+8) regardless of system time
         msg.setCreatedAt(java.time.Instant.now(clock));
 
+        if (groupId != null) {
+            // Cached and broadcast group messages carry the sender's profile like the history query does
+            com.example.jialechatweb.user.UserProfileCache.Profile sender = profileCache.get(senderId);
+            if (sender != null) {
+                msg.setSenderName(sender.displayName());
+                msg.setSenderAvatar(sender.avatarKey());
+            }
+        }
+
+        String tempId = data.hasNonNull("tempId") ? data.get("tempId").asText() : null;
+        CompletableFuture<Void> persisted;
+        try {
+            persisted = messageWriteBehind.submit(msg);
+        } catch (RejectedExecutionException e) {
+            // Backpressure: the write-behind queue stayed full, let the client retry
+            rejectSend(senderId, tempId, "busy");
+            return;
+        }
+        if (messageWriteBehind.acksAfterFlush()) {
+            persisted.whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    log.error("Failed to save message {}", msg.getId(), ex);
+                    rejectSend(senderId, tempId, "persist_failed");
+                } else {
+                    tailCache.append(msg);
+                    publishSent(msg, tempId);
+                }
+            });
+        } else {
+            publishSent(msg, tempId);
+            persisted.whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    log.error("Failed to save acknowledged message {}", msg.getId(), ex);
+                } else {
+                    tailCache.append(msg);
+                }
+            });
+        }
+    }
+
+    private void publishSent(ChatMessage msg, String tempId) {
+        Long senderId = msg.getSenderId();
+        Long receiverId = msg.getReceiverId();
+        Long groupId = msg.getGroupId();
+        Long conversationId = msg.getConversationId();
         try {
-            messageMapper.insert(msg);
-            
             // Use String for IDs to avoid JavaScript precision loss with large integers (Long)
             Map<String, Object> payload = new java.util.HashMap<>();
             payload.put("id", String.valueOf(msg.getId()));
@@ -169,133 +417,310 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             if (receiverId != null) payload.put("receiverId", String.valueOf(receiverId));
             if (groupId != null) {
                 payload.put("groupId", String.valueOf(groupId));
-                userMapper.findById(senderId).ifPresent(u -> {
-                    payload.put("senderName", u.getDisplayName());
-                    payload.put("senderAvatar", ossService.generateSignedUrl(u.getAvatarUrl()));
-                });
+                if (msg.getSenderName() != null) {
+                    payload.put("senderName", msg.getSenderName());
+                    payload.put("senderAvatar", signedUrls.sign(msg.getSenderAvatar()));
+                }
             }
 
             // Send ACK to sender
-            if (data.hasNonNull("tempId")) {
-                String tempId = data.get("tempId").asText();
+            if (tempId != null) {
                 // Add tempId to payload so sender can identify it in broadcast if broadcast arrives before ACK
                 payload.put("tempId", tempId);
                 
                 Map<String, Object> ackData = new java.util.HashMap<>();
                 ackData.put("tempId", tempId);
-                ackData.put("id", String.valueOf(id));
+                ackData.put("id", String.valueOf(msg.getId()));
                 ackData.put("timestamp", msg.getCreatedAt().toEpochMilli());
                 sendToUser(senderId, new Event("ack", ackData));
             }
 
-            // Check if receiver is online, if not, queue it
-            if (redisMessaging != null && receiverId != null) {
-                if (!redisMessaging.isUserOnline(receiverId)) {
-                    // Queue for offline push
-                    redisMessaging.addOfflineMessage(receiverId, new Event("message", payload));
+            RoutedFrame frame = RoutedFrame.of(new Event("message", payload), mapper);
+            unreadCounterService.onMessage(msg);
+
+            // Queue for offline recipients (presence check and push in one round trip), reusing the JSON we already have
+            if (redisMessaging != null) {
+                if (receiverId != null) {
+                    redisMessaging.offerOfflineMessage(receiverId, frame.json());
+                } else if (groupId != null && groupId != 1L) {
+                    // The public channel is not queued offline; its history is fetched on open
+                    queueForOfflineMembers(groupId, senderId, frame.json());
                 }
             }
 
-            broadcast(new Event("message", payload));
+            broadcast(frame);
         } catch (Exception e) {
-            System.err.println("Error saving/broadcasting message: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to broadcast message {}", msg.getId(), e);
+        }
+    }
+
+    private void queueForOfflineMembers(Long groupId, Long senderId, String json) {
+        java.util.List<Long> batch = new java.util.ArrayList<>(OFFLINE_BATCH);
+        for (Long memberId : groupMembershipIndex.members(groupId)) {
+            if (memberId.equals(senderId) || sessions.isConnected(memberId)) {
+                continue;
+            }
+            batch.add(memberId);
+            if (batch.size() == OFFLINE_BATCH) {
+                redisMessaging.offerOfflineMessages(batch, json);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            redisMessaging.offerOfflineMessages(batch, json);
         }
     }
 
+    private void rejectSend(Long senderId, String tempId, String reason) {
+        Map<String, Object> failData = new java.util.HashMap<>();
+        if (tempId != null) failData.put("tempId", tempId);
+        failData.put("reason", reason);
+        sendToUser(senderId, new Event("send_failed", failData));
+    }
+
     private void handleTyping(Long senderId, JsonNode data) {
-        Long toUserId = data.get("toUserId").asLong();
-        // Generate conversationId for compatibility
-        long min = Math.min(senderId, toUserId);
-        long max = Math.max(senderId, toUserId);
-        Long conversationId = (min << 32) | (max & 0xFFFFFFFFL);
+        long groupId = data.path("groupId").asLong();
+        TypingCoalescer.Target target;
+        if (groupId > 0) {
+            // Nobody wants to see who is typing in the public channel
+            if (groupId == 1L || !groupMembershipIndex.isMember(groupId, senderId)) return;
+            target = new TypingCoalescer.Target(senderId, true, groupId);
+        } else {
+            long toUserId = data.path("toUserId").asLong();
+            if (toUserId <= 0) return;
+            target = new TypingCoalescer.Target(senderId, false, toUserId);
+        }
+        if ("stop".equals(data.path("state").asText())) {
+            typingCoalescer.stop(target);
+        } else {
+            typingCoalescer.input(target, System.nanoTime());
+        }
+    }
 
-        broadcast(new Event("typing", Map.of(
-                "conversationId", String.valueOf(conversationId),
-                "from", String.valueOf(senderId),
-                "to", String.valueOf(toUserId)
-        )));
+    private void emitTyping(TypingCoalescer.Target target, TypingCoalescer.Signal signal) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("from", String.valueOf(target.senderId()));
+        payload.put("state", signal == TypingCoalescer.Signal.START ? "start" : "stop");
+        try {
+            if (target.group()) {
+                payload.put("groupId", String.valueOf(target.targetId()));
+                broadcast(RoutedFrame.of(new Event("typing", payload), mapper));
+                return;
+            }
+            long to = target.targetId();
+            payload.put("conversationId", String.valueOf(ConversationIds.of(target.senderId(), to)));
+            payload.put("to", String.valueOf(to));
+            RoutedFrame frame = RoutedFrame.of(new Event("typing", payload), mapper);
+            if (redisMessaging == null) {
+                sendToDevices(to, frame);
+            } else {
+                // Like messages: the recipient may have devices on other nodes too, and this node
+                // gets the frame back on the shard channel for its own sessions
+                redisMessaging.publishToUsers(frame, to, null);
+            }
+        } catch (IOException e) {
+            log.error("Failed to serialize typing event", e);
+        }
     }
 
     private void handleRead(Long userId, JsonNode data) {
-        // Read status is usually just local, or we can notify sender. 
-        // For simplicity, skip broadcast or implement later.
+        JsonNode groupNode = data.get("groupId");
+        if (groupNode != null && groupNode.asLong() > 0) {
+            // Only members have a read position to move; everyone is in the public channel (group 1)
+            long groupId = groupNode.asLong();
+            if (groupId == 1L || groupMembershipIndex.isMember(groupId, userId)) {
+                unreadCounterService.markGroupRead(userId, groupId);
+            }
+            return;
+        }
+        // Watermark: "I have read everything from friendId up to messageId"; coalesced and flushed in batches
+        JsonNode friendNode = data.get("friendId");
+        JsonNode messageNode = data.get("messageId");
+        if (friendNode == null || messageNode == null) {
+            return;
+        }
+        long friendId = friendNode.asLong();
+        long messageId = messageNode.asLong();
+        // Strangers have no conversation to read, and their watermark rows would never be cleaned up
+        if (friendId <= 0 || messageId <= 0 || !friendGraph.canMessage(userId, friendId)) {
+            return;
+        }
+        readReceiptService.markRead(userId, friendId, messageId);
     }
 
     public void broadcast(Event event) {
-        if (redisMessaging != null) {
-            redisMessaging.publish(event);
-        } else {
+        try {
+            broadcast(RoutedFrame.of(event, mapper));
+        } catch (IOException e) {
+            log.error("Failed to serialize {} event", event.type, e);
+        }
+    }
+
+    private void broadcast(RoutedFrame frame) {
+        if (redisMessaging == null) {
             // deliver locally only if redis is not enabled
-            deliver(event);
+            deliver(frame, -1);
+            return;
+        }
+        // Route to the channels of the nodes that hold the recipients instead of every node
+        Long groupId = frame.groupId();
+        if (isClusterWide(frame) || (groupId != null && groupId == 1L)) {
+            redisMessaging.publish(frame);
+        } else if (groupId != null) {
+            redisMessaging.publishToGroup(frame, groupId);
+        } else if (frame.senderId() != null || frame.receiverId() != null) {
+            redisMessaging.publishToUsers(frame, frame.senderId(), frame.receiverId());
+        } else {
+            redisMessaging.publish(frame);
         }
     }
 
-    private void handleBroadcast(String json) {
+    private static boolean isClusterWide(RoutedFrame frame) {
+        return "group_member".equals(frame.type());
+    }
+
+    private void handleBroadcast(RoutedFrame frame, int shard) {
+        if ("message".equals(frame.type())) {
+            appendToTail(frame);
+        }
+        deliver(frame, shard);
+    }
+
+    /**
+     * Keeps this node's history tails current with messages sent through other nodes. Our own
+     * messages come back here too; the tail keeps one copy per id. Only conversations with an
+     * open tail pay for parsing the frame.
+     */
+    private void appendToTail(RoutedFrame frame) {
+        Long groupId = frame.groupId();
+        Long senderId = frame.senderId();
+        Long receiverId = frame.receiverId();
+        Long conversationId = groupId == null && senderId != null && receiverId != null
+                ? ConversationIds.of(senderId, receiverId) : null;
+        if (!tailCache.tracks(groupId, conversationId)) {
+            return;
+        }
         try {
-            Event event = mapper.readValue(json, Event.class);
-            deliver(event);
-        } catch (IOException ignored) {
+            JsonNode data = mapper.readTree(frame.json()).path("data");
+            ChatMessage msg = new ChatMessage();
+            msg.setId(data.path("id").asLong());
+            msg.setConversationId(conversationId);
+            msg.setGroupId(groupId);
+            msg.setSenderId(senderId);
+            msg.setReceiverId(receiverId);
+            msg.setContent(data.path("content").asText(null));
+            msg.setContentType(data.path("contentType").asText("text"));
+            msg.setIsRead(false);
+            msg.setCreatedAt(java.time.Instant.ofEpochMilli(data.path("timestamp").asLong()));
+            if (groupId != null && senderId != null) {
+                // The frame carries a signed URL; the tail keeps object keys like the history query
+                com.example.jialechatweb.user.UserProfileCache.Profile sender = profileCache.get(senderId);
+                if (sender != null) {
+                    msg.setSenderName(sender.displayName());
+                    msg.setSenderAvatar(sender.avatarKey());
+                }
+            }
+            if (msg.getId() != null && msg.getId() > 0) {
+                tailCache.append(msg);
+            }
+        } catch (IOException e) {
+            // A frame we cannot read is simply not cached; the tail's TTL catches up
         }
     }
 
-    private void deliver(Event event) {
+    /**
+     * Delivers to local sessions. A frame that arrived on a user shard channel is only delivered
+     * to users of that shard: a node subscribed to both the sender's and the receiver's shard
+     * gets the frame twice, once per shard.
+     */
+    private void deliver(RoutedFrame frame, int shard) {
         // Security fix: Only deliver to relevant users
-        Long senderId = null;
-        Long receiverId = null;
-        Long groupId = null;
-        
-        try {
-            if ("message".equals(event.type)) {
-                senderId = parseLong(event.data.get("senderId"));
-                receiverId = parseLong(event.data.get("receiverId"));
-                groupId = parseLong(event.data.get("groupId"));
-            } else if ("typing".equals(event.type)) {
-                senderId = parseLong(event.data.get("from"));
-                receiverId = parseLong(event.data.get("to"));
-            } else if ("friend_request".equals(event.type)) {
-                receiverId = parseLong(event.data.get("receiverId"));
-            } else if ("online_count".equals(event.type)) {
-                // Broadcast to everyone
-                broadcastToAll(event);
+        switch (frame.type()) {
+            case "group_member" -> {
+                // Control event: keep this node's membership index in sync, never sent to clients
+                applyMembershipChange(frame);
                 return;
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing IDs in deliver: " + e.getMessage());
-            return;
+            default -> { }
         }
 
+        Long groupId = frame.groupId();
         if (groupId != null) {
             if (groupId == 1L) { // Public Channel
-                broadcastToAll(event);
+                broadcastToAll(frame);
             } else {
-                // TODO: Fetch group members and send
+                // Typing is only for the other members, same as one-to-one below
+                sendToGroup(groupId, frame, "typing".equals(frame.type()) ? frame.senderId() : null);
             }
         } else {
-            if (senderId != null) sendToUser(senderId, event);
-            if (receiverId != null) sendToUser(receiverId, event);
+            Long senderId = frame.senderId();
+            Long receiverId = frame.receiverId();
+            // Typing is only for the other side
+            if (senderId != null && inShard(senderId, shard) && !"typing".equals(frame.type())) {
+                sendToDevices(senderId, frame);
+            }
+            if (receiverId != null && !receiverId.equals(senderId) && inShard(receiverId, shard)) {
+                sendToDevices(receiverId, frame);
+            }
         }
     }
 
-    private void broadcastToAll(Event event) {
-        try {
-            TextMessage msg = new TextMessage(mapper.writeValueAsString(event));
-            for (WebSocketSession session : sessions.values()) {
-                if (session.isOpen()) {
-                    try {
-                        synchronized (session) {
-                            session.sendMessage(msg);
-                        }
-                    } catch (IOException ignored) {}
+    private boolean inShard(long userId, int shard) {
+        return shard < 0 || redisMessaging.shardOf(userId) == shard;
+    }
+
+    private void broadcastToAll(RoutedFrame frame) {
+        sessions.forEachSession(session -> session.enqueue(frame));
+    }
+
+    private void sendToGroup(Long groupId, RoutedFrame frame, Long exceptUserId) {
+        Set<Long> members = groupMembershipIndex.members(groupId);
+        int connectedUsers = sessions.userCount();
+        if (members.isEmpty() || connectedUsers == 0) {
+            return;
+        }
+        // Walk whichever side is smaller: a big group on a lightly loaded node, or a small group on a busy one
+        if (members.size() <= connectedUsers) {
+            for (Long memberId : members) {
+                if (!memberId.equals(exceptUserId)) {
+                    sendToDevices(memberId, frame);
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } else {
+            sessions.forEachUser((userId, devices) -> {
+                if (members.contains(userId) && (exceptUserId == null || userId != exceptUserId)) {
+                    for (OutboundSession device : devices) {
+                        device.enqueue(frame);
+                    }
+                }
+            });
         }
     }
 
-    private void broadcastOnlineCount() {
-        broadcast(new Event("online_count", Map.of("count", sessions.size())));
+    private void sendToDevices(long userId, RoutedFrame frame) {
+        for (OutboundSession device : sessions.sessionsOf(userId)) {
+            device.enqueue(frame);
+        }
+    }
+
+    private void applyMembershipChange(RoutedFrame frame) {
+        // Rare control event, so a full parse is fine here
+        Event event;
+        try {
+            event = mapper.readValue(frame.json(), Event.class);
+        } catch (IOException e) {
+            return;
+        }
+        Long groupId = parseLong(event.data.get("groupId"));
+        Long userId = parseLong(event.data.get("userId"));
+        if (groupId == null || userId == null) return;
+        if ("remove".equals(event.data.get("action"))) {
+            groupMembershipIndex.removeMember(groupId, userId);
+            if (redisMessaging != null) redisMessaging.userLeftGroup(userId, groupId);
+        } else {
+            groupMembershipIndex.addMember(groupId, userId);
+            if (redisMessaging != null) redisMessaging.userJoinedGroup(userId, groupId);
+        }
     }
 
     private Long parseLong(Object obj) {
@@ -306,14 +731,12 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     }
 
     private void sendToUser(Long userId, Event event) {
-        WebSocketSession session = sessions.get(userId);
-        if (session != null && session.isOpen()) {
-            try {
-                synchronized (session) {
-                    session.sendMessage(new TextMessage(mapper.writeValueAsString(event)));
-                }
-            } catch (IOException ignored) {
-            }
+        if (!sessions.isConnected(userId)) {
+            return;
+        }
+        try {
+            sendToDevices(userId, new RoutedFrame(event.type, null, userId, null, mapper.writeValueAsString(event)));
+        } catch (IOException ignored) {
         }
     }
 
@@ -0,0 +1,208 @@
+package com.example.jialechatweb.ws;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a reconnecting user's offline backlog off the connect thread.
+ * <p>
+ * There is one drain per user, however many devices connect: the backlog is a single Redis
+ * list, so per-device drains would each pop a disjoint part of it. The drain pops
+ * {@code chunk-size} events at a time and queues every chunk on all of the user's open
+ * {@link OutboundSession}s at that moment; a device that connects mid-drain joins from the next
+ * chunk. The next chunk is only fetched once every frame of the current one has been confirmed
+ * written, so a large backlog never sits in memory at once and never floods the outbound
+ * queues. Frames that no device took (dropped or lost to closed sockets) are put back at the
+ * head of the Redis list; if a device is still open the drain resumes after
+ * {@code retry-delay-ms}, otherwise they wait for the next connection. If the backlog cap
+ * trimmed anything, an {@code offline_overflow} marker with the count is sent first.
+ */
+@Component
+@Profile("!test")
+public class OfflineDrainer {
+    private static final Logger log = LoggerFactory.getLogger(OfflineDrainer.class);
+
+    private final RedisMessaging redisMessaging;
+    private final SessionRegistry sessions;
+    // Users with a drain running on this node
+    private final Set<Long> draining = ConcurrentHashMap.newKeySet();
+    private final int chunkSize;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService executor;
+
+    public OfflineDrainer(ObjectProvider<RedisMessaging> redisMessagingProvider,
+                          SessionRegistry sessions,
+                          @Value("${chat.offline.chunk-size:200}") int chunkSize,
+                          @Value("${chat.offline.retry-delay-ms:1000}") long retryDelayMillis,
+                          @Value("${chat.offline.threads:2}") int threads) {
+        this.redisMessaging = redisMessagingProvider.getIfAvailable();
+        this.sessions = sessions;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.retryDelayMillis = Math.max(0, retryDelayMillis);
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "offline-drain-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts draining the user's backlog into their connected devices, unless a drain is already
+     * running (the new device then gets the remaining chunks); returns immediately.
+     */
+    public void start(Long userId) {
+        if (redisMessaging != null && draining.add(userId)) {
+            submit(() -> {
+                announceOverflow(userId);
+                drainChunk(userId);
+            }, 0);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Events trimmed by the backlog cap are not replayed one by one; the client gets a single
+     * marker telling it how many it missed and refetches history instead.
+     */
+    private void announceOverflow(Long userId) {
+        try {
+            long dropped = redisMessaging.takeOfflineOverflow(userId);
+            if (dropped > 0) {
+                TextMessage marker = new TextMessage("{\"type\":\"offline_overflow\",\"data\":{\"dropped\":" + dropped + "}}");
+                for (OutboundSession session : sessions.sessionsOf(userId)) {
+                    session.enqueue(marker);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read offline overflow of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private void drainChunk(Long userId) {
+        List<OutboundSession> devices = openDevices(userId);
+        if (devices.isEmpty()) {
+            draining.remove(userId);
+            // A device that connected just before the remove saw the drain running and did not start one
+            if (!openDevices(userId).isEmpty() && draining.add(userId)) {
+                submit(() -> drainChunk(userId), 0);
+            }
+            return;
+        }
+        List<String> chunk;
+        try {
+            chunk = redisMessaging.popOfflineMessages(userId, chunkSize);
+        } catch (Exception e) {
+            log.warn("Failed to read offline messages of user {}: {}", userId, e.getMessage());
+            draining.remove(userId);
+            return;
+        }
+        if (chunk.isEmpty()) {
+            draining.remove(userId);
+            return;
+        }
+        new ChunkDelivery(userId, devices, chunk).send();
+    }
+
+    private List<OutboundSession> openDevices(Long userId) {
+        List<OutboundSession> open = new ArrayList<>();
+        for (OutboundSession session : sessions.sessionsOf(userId)) {
+            if (session.isOpen()) {
+                open.add(session);
+            }
+        }
+        return open;
+    }
+
+    private void submit(Runnable task, long delayMillis) {
+        try {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down; anything not delivered is still in Redis
+        }
+    }
+
+    /**
+     * One chunk in flight on every device. Delivery callbacks arrive on writer threads; the last
+     * one decides whether to fetch the next chunk or put back the frames no device took.
+     */
+    private final class ChunkDelivery {
+        private final Long userId;
+        private final List<OutboundSession> devices;
+        private final List<String> chunk;
+        private final boolean[] sent;
+        private final AtomicInteger remaining;
+
+        ChunkDelivery(Long userId, List<OutboundSession> devices, List<String> chunk) {
+            this.userId = userId;
+            this.devices = devices;
+            this.chunk = chunk;
+            this.sent = new boolean[chunk.size()];
+            this.remaining = new AtomicInteger(chunk.size() * devices.size());
+        }
+
+        void send() {
+            for (int i = 0; i < chunk.size(); i++) {
+                int index = i;
+                // Directly send raw JSON string since it's already serialized
+                TextMessage frame = new TextMessage(chunk.get(i));
+                for (OutboundSession session : devices) {
+                    session.enqueue(frame, ok -> completed(index, ok));
+                }
+            }
+        }
+
+        private void completed(int index, boolean ok) {
+            // Only ever set to true, so devices reporting concurrently cannot undo each other
+            if (ok) {
+                sent[index] = true;
+            }
+            // The decrement publishes sent[index] to whichever thread sees zero
+            if (remaining.decrementAndGet() == 0) {
+                submit(this::finish, 0);
+            }
+        }
+
+        private void finish() {
+            List<String> unsent = new ArrayList<>();
+            for (int i = 0; i < sent.length; i++) {
+                if (!sent[i]) {
+                    unsent.add(chunk.get(i));
+                }
+            }
+            if (unsent.isEmpty()) {
+                drainChunk(userId);
+                return;
+            }
+            try {
+                redisMessaging.requeueOfflineMessages(userId, unsent);
+            } catch (Exception e) {
+                log.error("Lost {} offline messages of user {}: {}", unsent.size(), userId, e.getMessage());
+                draining.remove(userId);
+                return;
+            }
+            // drainChunk ends the drain if every device has gone by then
+            submit(() -> drainChunk(userId), retryDelayMillis);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.jialechatweb.ws;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Pushes the online user count to clients at most once per {@code count-interval-ms}, and only
+ * when it changed, instead of on every connect and disconnect.
+ * <p>
+ * With Redis each node reports its own connected users into a shared per-node hash on every
+ * tick and reads back the cluster total, so all nodes show the same number and nodes that stop
+ * reporting drop out after {@code stale-ms}. Every node computes the total itself and sends it
+ * only to its own sessions; nothing goes over pub/sub. A newly connected client gets the last
+ * published count directly.
+ */
+@Component
+@Profile("!test")
+public class OnlineCountPublisher {
+    private static final Logger log = LoggerFactory.getLogger(OnlineCountPublisher.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final SessionRegistry sessions;
+    private final RedisMessaging redisMessaging;
+    private final long staleMillis;
+    private volatile long lastCount = -1;
+    private volatile RoutedFrame lastFrame;
+
+    public OnlineCountPublisher(SessionRegistry sessions,
+                                ObjectProvider<RedisMessaging> redisMessagingProvider,
+                                @Value("${chat.presence.count-stale-ms:15000}") long staleMillis) {
+        this.sessions = sessions;
+        this.redisMessaging = redisMessagingProvider.getIfAvailable();
+        this.staleMillis = Math.max(1, staleMillis);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.count-interval-ms:2000}")
+    public void publish() {
+        long count = currentCount();
+        if (count == lastCount) {
+            return;
+        }
+        RoutedFrame frame = frame(count);
+        lastCount = count;
+        lastFrame = frame;
+        sessions.forEachSession(session -> session.enqueue(frame));
+    }
+
+    /**
+     * Sends the last published count to one session, typically right after it connects.
+     */
+    public void sendCurrent(OutboundSession session) {
+        RoutedFrame frame = lastFrame;
+        session.enqueue(frame != null ? frame : frame(sessions.userCount()));
+    }
+
+    public long lastCount() {
+        return lastCount;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (redisMessaging != null) {
+            try {
+                redisMessaging.clearOnlineUsers();
+            } catch (RuntimeException e) {
+                log.warn("Failed to withdraw online count: {}", e.getMessage());
+            }
+        }
+    }
+
+    private long currentCount() {
+        int local = sessions.userCount();
+        if (redisMessaging == null) {
+            return local;
+        }
+        try {
+            return redisMessaging.reportOnlineUsers(local, staleMillis);
+        } catch (RuntimeException e) {
+            // Keep showing the last cluster-wide number rather than flapping to the local one
+            log.warn("Failed to report online count: {}", e.getMessage());
+            return lastCount >= 0 ? lastCount : local;
+        }
+    }
+
+    private static RoutedFrame frame(long count) {
+        try {
+            return new RoutedFrame("online_count", null, null, null, mapper.writeValueAsString(
+                    new ChatWebSocketHandler.Event("online_count", Map.of("count", count))));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
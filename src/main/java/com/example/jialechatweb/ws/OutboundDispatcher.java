@@ -0,0 +1,184 @@
+package com.example.jialechatweb.ws;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the writer pool that drains {@link OutboundSession} queues, the queue limits and the
+ * queue metrics (depth, drops, slow-consumer closes and time spent queued).
+ * <p>
+ * Sessions that connect with {@code ?batch=1} are drained in micro-batches: a frame for an idle
+ * session goes out at once, but frames that follow within {@code batch.max-delay-ms} of the last
+ * write are held until that delay has passed and sent together as one {@code batch} frame.
+ */
+@Component
+@Profile("!test")
+public class OutboundDispatcher {
+    // Tomcat's per-session bound on a blocking send; keeps one stuck client from pinning a writer forever
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final int maxQueue;
+    private final OutboundSession.OverflowPolicy overflowPolicy;
+    private final long sendTimeLimitMillis;
+    private final long sendTimeLimitNanos;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService batchTimer;
+    private final long batchMaxDelayNanos;
+    private final int batchMaxFrames;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder slowClosed = new LongAdder();
+    private final AtomicLong queued = new AtomicLong();
+    private final LongAdder queueTimeNanos = new LongAdder();
+    private final LongAdder queueTimeSamples = new LongAdder();
+    private final LongAccumulator maxQueueTimeNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedFrames = new LongAdder();
+
+    public OutboundDispatcher(
+            @Value("${chat.ws.outbound.max-queue:1000}") int maxQueue,
+            @Value("${chat.ws.outbound.overflow-policy:drop-oldest}") String overflowPolicy,
+            @Value("${chat.ws.outbound.send-time-limit-ms:10000}") long sendTimeLimitMillis,
+            @Value("${chat.ws.outbound.writer-threads:0}") int writerThreads,
+            @Value("${chat.ws.outbound.batch.max-delay-ms:5}") long batchMaxDelayMillis,
+            @Value("${chat.ws.outbound.batch.max-frames:64}") int batchMaxFrames) {
+        this.maxQueue = Math.max(1, maxQueue);
+        this.overflowPolicy = OutboundSession.OverflowPolicy.valueOf(
+                overflowPolicy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.sendTimeLimitMillis = Math.max(1, sendTimeLimitMillis);
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(this.sendTimeLimitMillis);
+        int threads = writerThreads > 0 ? writerThreads : Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicInteger seq = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ws-writer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-batch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, batchMaxDelayMillis));
+        // CBOR batches use a one-byte array length header
+        this.batchMaxFrames = Math.max(1, Math.min(255, batchMaxFrames));
+    }
+
+    public OutboundSession open(WebSocketSession session) {
+        if (session instanceof NativeWebSocketSession nativeSession
+                && nativeSession.getNativeSession() instanceof jakarta.websocket.Session ws) {
+            ws.getUserProperties().put(BLOCKING_SEND_TIMEOUT, sendTimeLimitMillis);
+        }
+        return new OutboundSession(session, this);
+    }
+
+    public Map<String, Object> stats() {
+        long samples = queueTimeSamples.sum();
+        Map<String, Object> res = new HashMap<>();
+        res.put("queued", queued.get());
+        res.put("enqueued", enqueued.sum());
+        res.put("sent", sent.sum());
+        res.put("dropped", dropped.sum());
+        res.put("failed", failed.sum());
+        res.put("slowConsumerClosed", slowClosed.sum());
+        res.put("avgQueueMicros", samples == 0 ? 0 : queueTimeNanos.sum() / samples / 1000);
+        res.put("maxQueueMicros", maxQueueTimeNanos.getThenReset() / 1000);
+        res.put("maxQueue", maxQueue);
+        res.put("overflowPolicy", overflowPolicy.name());
+        res.put("batches", batches.sum());
+        res.put("batchedFrames", batchedFrames.sum());
+        return res;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchTimer.shutdownNow();
+        writers.shutdown();
+    }
+
+    void execute(Runnable drain) {
+        writers.execute(drain);
+    }
+
+    /**
+     * Runs {@code drain} on the writer pool after {@code delayNanos}; the timer thread only hands off.
+     */
+    void executeLater(Runnable drain, long delayNanos) {
+        batchTimer.schedule(() -> writers.execute(drain), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    long batchMaxDelayNanos() {
+        return batchMaxDelayNanos;
+    }
+
+    int batchMaxFrames() {
+        return batchMaxFrames;
+    }
+
+    void recordBatch(int frames) {
+        batches.increment();
+        batchedFrames.add(frames);
+    }
+
+    int maxQueue() {
+        return maxQueue;
+    }
+
+    OutboundSession.OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    long sendTimeLimitNanos() {
+        return sendTimeLimitNanos;
+    }
+
+    void recordEnqueued() {
+        enqueued.increment();
+        queued.incrementAndGet();
+    }
+
+    void recordDequeued(int count) {
+        queued.addAndGet(-count);
+    }
+
+    void recordSent() {
+        sent.increment();
+    }
+
+    void recordDropped(int count) {
+        dropped.add(count);
+    }
+
+    void recordFailed() {
+        failed.increment();
+    }
+
+    void recordSlowClose() {
+        slowClosed.increment();
+    }
+
+    void recordQueueTime(long nanos) {
+        queueTimeNanos.add(nanos);
+        queueTimeSamples.increment();
+        maxQueueTimeNanos.accumulate(nanos);
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.jialechatweb.ws;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A WebSocket session with a bounded, non-blocking outbound queue.
+ * <p>
+ * {@link #enqueue} never touches the socket: it appends to the queue and, if no drain is
+ * running, schedules one on the shared writer pool. At most one writer drains a session at a
+ * time, so frames stay ordered without {@code synchronized (session)} on the caller's thread.
+ * A slow client only backs up its own queue; once that queue passes the high-water mark the
+ * configured {@link OverflowPolicy} applies, and a head frame older than the send time limit
+ * closes the session as a slow consumer. Such a close only marks the session closed on the
+ * caller's thread; the socket itself is closed on the writer pool.
+ */
+public class OutboundSession {
+    public enum OverflowPolicy { DROP_NEWEST, DROP_OLDEST, CLOSE }
+
+    /**
+     * Told exactly once whether a frame reached the socket ({@code sent}) or was dropped,
+     * rejected or discarded on close. Runs on a writer thread or the caller's; keep it short.
+     */
+    @FunctionalInterface
+    public interface Delivery {
+        void completed(boolean sent);
+    }
+
+    public static final String BATCH_ATTRIBUTE = "batchFrames";
+
+    private static final int DRAIN_BURST = 64;
+
+    private final WebSocketSession session;
+    private final OutboundDispatcher dispatcher;
+    private final WireFormat format;
+    private final boolean batching;
+    // Last socket write, written by the draining writer only; paces micro-batches
+    private volatile long lastWriteNanos;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+    private volatile long lastSeenNanos = System.nanoTime();
+    private volatile long rateLimitedUntilNanos = System.nanoTime();
+
+    OutboundSession(WebSocketSession session, OutboundDispatcher dispatcher) {
+        this.session = session;
+        this.dispatcher = dispatcher;
+        this.format = WireFormat.of(session.getAttributes());
+        this.batching = session.getAttributes() != null
+                && Boolean.TRUE.equals(session.getAttributes().get(BATCH_ATTRIBUTE))
+                && dispatcher.batchMaxDelayNanos() > 0;
+        this.lastWriteNanos = System.nanoTime() - dispatcher.batchMaxDelayNanos();
+    }
+
+    public WebSocketSession session() {
+        return session;
+    }
+
+    public String id() {
+        return session.getId();
+    }
+
+    public boolean isOpen() {
+        return !closed && session.isOpen();
+    }
+
+    public WireFormat format() {
+        return format;
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    /**
+     * Records that the client sent something (a frame or a pong), i.e. is still there.
+     */
+    public void markSeen() {
+        lastSeenNanos = System.nanoTime();
+    }
+
+    public long idleNanos() {
+        return System.nanoTime() - lastSeenNanos;
+    }
+
+    /**
+     * Records that the client may not send again for {@code retryAfterNanos}.
+     *
+     * @return true if it was not throttled already, i.e. it has not been told yet
+     */
+    public boolean markRateLimited(long retryAfterNanos) {
+        long now = System.nanoTime();
+        boolean fresh = now - rateLimitedUntilNanos >= 0;
+        rateLimitedUntilNanos = now + retryAfterNanos;
+        return fresh;
+    }
+
+    /**
+     * Closes a session whose client stopped answering heartbeats. The socket is closed on the
+     * writer pool, so a dead peer cannot hold up the caller.
+     */
+    public void expire() {
+        closeLater(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * Queues a frame for this session. Returns false if the frame was not accepted.
+     */
+    public boolean enqueue(WebSocketMessage<?> message) {
+        return enqueue(message, null);
+    }
+
+    /**
+     * Queues a routed frame in this session's encoding, shared with every other recipient.
+     */
+    public boolean enqueue(RoutedFrame frame) {
+        return enqueue(frame.message(format), null);
+    }
+
+    /**
+     * Queues a frame and reports its fate to {@code delivery}, which callers use to retry
+     * frames that never made it out.
+     */
+    public boolean enqueue(WebSocketMessage<?> message, Delivery delivery) {
+        if (!isOpen()) {
+            notify(delivery, false);
+            return false;
+        }
+        if (format == WireFormat.CBOR && message instanceof TextMessage text) {
+            // One-off frames (acks, offline backlog) are converted per session
+            message = WireFormat.toCbor(text.getPayload());
+        }
+        long now = System.nanoTime();
+        Pending head = queue.peek();
+        if (head != null && now - head.enqueuedAt > dispatcher.sendTimeLimitNanos()) {
+            dispatcher.recordSlowClose();
+            closeLater(CloseStatus.SESSION_NOT_RELIABLE);
+            notify(delivery, false);
+            return false;
+        }
+        if (depth.get() >= dispatcher.maxQueue()) {
+            switch (dispatcher.overflowPolicy()) {
+                case DROP_NEWEST -> {
+                    dispatcher.recordDropped(1);
+                    notify(delivery, false);
+                    return false;
+                }
+                case DROP_OLDEST -> {
+                    Pending oldest = queue.poll();
+                    if (oldest != null) {
+                        depth.decrementAndGet();
+                        dispatcher.recordDequeued(1);
+                        dispatcher.recordDropped(1);
+                        notify(oldest.delivery, false);
+                    }
+                }
+                case CLOSE -> {
+                    dispatcher.recordSlowClose();
+                    closeLater(CloseStatus.SESSION_NOT_RELIABLE);
+                    notify(delivery, false);
+                    return false;
+                }
+            }
+        }
+        queue.offer(new Pending(message, now, delivery));
+        depth.incrementAndGet();
+        dispatcher.recordEnqueued();
+        if (closed) {
+            // Lost a race with close(); make sure nothing stays queued
+            close();
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Marks the session closed and discards anything still queued.
+     */
+    public void close() {
+        closed = true;
+        int dropped = 0;
+        Pending p;
+        while ((p = queue.poll()) != null) {
+            dropped++;
+            notify(p.delivery, false);
+        }
+        if (dropped > 0) {
+            depth.addAndGet(-dropped);
+            dispatcher.recordDequeued(dropped);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            // A batching session that wrote recently waits out the rest of the delay to collect
+            // more frames; an idle one is written at once, so a lone message is never held back
+            long wait = batching ? lastWriteNanos + dispatcher.batchMaxDelayNanos() - System.nanoTime() : 0;
+            if (wait > 0) {
+                dispatcher.executeLater(this::drain, wait);
+            } else {
+                dispatcher.execute(this::drain);
+            }
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = batching ? new ArrayList<>() : null;
+        try {
+            for (int i = 0; i < DRAIN_BURST; i++) {
+                Pending next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                depth.decrementAndGet();
+                dispatcher.recordDequeued(1);
+                if (!isOpen()) {
+                    notify(next.delivery, false);
+                    continue;
+                }
+                dispatcher.recordQueueTime(System.nanoTime() - next.enqueuedAt);
+                if (batch != null && format.batchable(next.message)) {
+                    batch.add(next);
+                    if (batch.size() >= dispatcher.batchMaxFrames()) {
+                        sendBatch(batch);
+                    }
+                    continue;
+                }
+                if (batch != null) {
+                    // Keep order: whatever was collected goes out before this frame
+                    sendBatch(batch);
+                }
+                send(next);
+            }
+            if (batch != null) {
+                sendBatch(batch);
+            }
+        } finally {
+            draining.set(false);
+        }
+        // Either the burst was used up or a frame raced in after the last poll
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void send(Pending p) {
+        if (!isOpen()) {
+            notify(p.delivery, false);
+            return;
+        }
+        try {
+            session.sendMessage(p.message);
+            lastWriteNanos = System.nanoTime();
+            dispatcher.recordSent();
+            notify(p.delivery, true);
+        } catch (IOException | IllegalStateException e) {
+            dispatcher.recordFailed();
+            notify(p.delivery, false);
+            closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+    }
+
+    /**
+     * Sends the collected frames as one batch frame (or alone, if there is just one) and clears the list.
+     */
+    private void sendBatch(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            send(batch.get(0));
+            batch.clear();
+            return;
+        }
+        if (!isOpen()) {
+            batch.forEach(p -> notify(p.delivery, false));
+            batch.clear();
+            return;
+        }
+        List<WebSocketMessage<?>> frames = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            frames.add(p.message);
+        }
+        try {
+            session.sendMessage(format.batch(frames));
+            lastWriteNanos = System.nanoTime();
+            dispatcher.recordBatch(batch.size());
+            for (Pending p : batch) {
+                dispatcher.recordSent();
+                notify(p.delivery, true);
+            }
+        } catch (IOException | IllegalStateException e) {
+            for (Pending p : batch) {
+                dispatcher.recordFailed();
+                notify(p.delivery, false);
+            }
+            closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        batch.clear();
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        close();
+        closeSocket(status);
+    }
+
+    /**
+     * Like {@link #closeQuietly} but leaves the socket close to the writer pool. Callers of
+     * {@link #enqueue} are often iterating the session registry, and closing the socket fires
+     * {@code afterConnectionClosed} (which unregisters) on the same thread; it may also block on
+     * a stuck peer for up to the send timeout.
+     */
+    private void closeLater(CloseStatus status) {
+        close();
+        dispatcher.execute(() -> closeSocket(status));
+    }
+
+    private void closeSocket(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void notify(Delivery delivery, boolean sent) {
+        if (delivery != null) {
+            delivery.completed(sent);
+        }
+    }
+
+    private record Pending(WebSocketMessage<?> message, long enqueuedAt, Delivery delivery) {}
+}
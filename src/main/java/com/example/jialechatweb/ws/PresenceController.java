@@ -0,0 +1,36 @@
+package com.example.jialechatweb.ws;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/presence")
+@Profile("!test")
+public class PresenceController {
+    private static final int MAX_IDS = 500;
+
+    private final PresenceService presenceService;
+
+    public PresenceController(PresenceService presenceService) {
+        this.presenceService = presenceService;
+    }
+
+    /**
+     * Bulk lookup for friend lists: {@code GET /api/presence?ids=1,2,3} returns the ids that are online.
+     */
+    @GetMapping
+    public ResponseEntity<?> online(@RequestParam List<Long> ids) {
+        if (ids.size() > MAX_IDS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most " + MAX_IDS + " ids per request"));
+        }
+        List<Long> distinct = ids.stream().distinct().toList();
+        return ResponseEntity.ok(Map.of("online", presenceService.online(distinct)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.jialechatweb.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.PingMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heartbeat-driven presence.
+ * <p>
+ * Every {@code refresh-interval-ms} the node pings each local session with a WebSocket ping
+ * (browsers answer with a pong on their own, so clients need no code for it), closes sessions
+ * that have sent nothing, not even a pong, for {@code heartbeat-timeout-ms}, and re-asserts
+ * {@code online:<id>} for every remaining user in pipelined batches. The presence TTL spans a
+ * few intervals, so users of a node that dies go offline on their own.
+ */
+@Service
+@Profile("!test")
+public class PresenceService {
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+    private static final int PIPELINE_CHUNK = 1000;
+
+    private final SessionRegistry sessions;
+    private final RedisMessaging redisMessaging;
+    private final long heartbeatTimeoutNanos;
+
+    public PresenceService(SessionRegistry sessions,
+                           ObjectProvider<RedisMessaging> redisMessagingProvider,
+                           @Value("${chat.presence.heartbeat-timeout-ms:75000}") long heartbeatTimeoutMillis) {
+        this.sessions = sessions;
+        this.redisMessaging = redisMessagingProvider.getIfAvailable();
+        this.heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, heartbeatTimeoutMillis));
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.refresh-interval-ms:30000}")
+    public void heartbeat() {
+        List<Long> alive = new ArrayList<>(sessions.userCount());
+        List<OutboundSession> expired = new ArrayList<>();
+        PingMessage ping = new PingMessage(ByteBuffer.allocate(0));
+        sessions.forEachUser((userId, devices) -> {
+            boolean any = false;
+            for (OutboundSession device : devices) {
+                if (device.idleNanos() > heartbeatTimeoutNanos) {
+                    expired.add(device);
+                } else {
+                    device.enqueue(ping);
+                    any = true;
+                }
+            }
+            if (any) {
+                alive.add(userId);
+            }
+        });
+        // Closed only once the walk is over: closing fires afterConnectionClosed, which
+        // unregisters the session and handles the last-device case
+        expired.forEach(OutboundSession::expire);
+        if (redisMessaging == null) {
+            return;
+        }
+        try {
+            redisMessaging.refreshOnline(alive, PIPELINE_CHUNK);
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh presence for {} users: {}", alive.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * The subset of {@code userIds} that is online: cluster-wide with Redis, this node otherwise.
+     */
+    public List<Long> online(List<Long> userIds) {
+        if (redisMessaging != null) {
+            return redisMessaging.onlineAmong(userIds);
+        }
+        List<Long> online = new ArrayList<>();
+        for (Long id : userIds) {
+            if (sessions.isConnected(id)) {
+                online.add(id);
+            }
+        }
+        return online;
+    }
+}
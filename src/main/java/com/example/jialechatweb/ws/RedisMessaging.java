@@ -1,71 +1,453 @@
 package com.example.jialechatweb.ws;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
-import java.util.function.Consumer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 @Profile("!test")
 @ConditionalOnProperty(name = "spring.data.redis.enabled", havingValue = "true", matchIfMissing = false)
 public class RedisMessaging implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(RedisMessaging.class);
+    private static final java.time.Duration OFFLINE_TTL = java.time.Duration.ofDays(7);
+    private static final String SHARD_PREFIX = "chat:shard:";
+    private static final String GROUP_PREFIX = "chat:g:";
+
+    // KEYS: (online:<id>, offline:msg:<id>, offline:dropped:<id>) per user; ARGV: json, cap, ttl seconds.
+    // Skips online users, appends, trims the oldest past the cap into a dropped counter and refreshes TTLs.
+    private static final RedisScript<Long> OFFER_OFFLINE = new DefaultRedisScript<>("""
+            local queued = 0
+            local cap = tonumber(ARGV[2])
+            for i = 1, #KEYS, 3 do
+              if redis.call('EXISTS', KEYS[i]) == 0 then
+                local len = redis.call('RPUSH', KEYS[i + 1], ARGV[1])
+                local over = len - cap
+                if over > 0 then
+                  redis.call('LTRIM', KEYS[i + 1], over, -1)
+                  redis.call('INCRBY', KEYS[i + 2], over)
+                  redis.call('EXPIRE', KEYS[i + 2], ARGV[3])
+                end
+                redis.call('EXPIRE', KEYS[i + 1], ARGV[3])
+                queued = queued + 1
+              end
+            end
+            return queued
+            """, Long.class);
+
+    // KEYS: presence:nodes (node -> connected users), presence:beats (node -> last report ms);
+    // ARGV: node, users, now ms, stale ms. Records this node, drops nodes that stopped reporting
+    // and returns the cluster total.
+    private static final RedisScript<Long> REPORT_ONLINE = new DefaultRedisScript<>("""
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])
+            local stale = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', tonumber(ARGV[3]) - tonumber(ARGV[4]))
+            for _, node in ipairs(stale) do
+              redis.call('HDEL', KEYS[1], node)
+              redis.call('ZREM', KEYS[2], node)
+            end
+            local total = 0
+            for _, n in ipairs(redis.call('HVALS', KEYS[1])) do
+              total = total + tonumber(n)
+            end
+            return total
+            """, Long.class);
+    private static final List<String> PRESENCE_KEYS = List.of("presence:nodes", "presence:beats");
+
     private final StringRedisTemplate redisTemplate;
     private final RedisMessageListenerContainer container;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private Consumer<String> handler;
+    private FrameHandler handler;
     private final ChannelTopic topic = new ChannelTopic("chat-broadcast");
+    private final int offlineBacklogCap;
+    private final int shards;
+    private final String nodeId;
+    private final java.time.Duration presenceTtl;
+    // Non-null when chat.transport is "streams"; otherwise channels are pub/sub channels
+    private final RedisStreamTransport streams;
+    // Channel -> number of local reasons to stay subscribed (users in a shard, members of a group)
+    private final ConcurrentHashMap<String, Integer> channelRefs = new ConcurrentHashMap<>();
+    // Channels actually subscribed; brought in line with channelRefs outside any map lock
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+    private final Object[] subscriptionLocks = new Object[64];
+    private final ConcurrentHashMap<Long, LocalUser> localUsers = new ConcurrentHashMap<>();
+
+    /**
+     * Receives frames from Redis. {@code shard} is the user shard the frame was published to,
+     * or -1 for the broadcast and group channels.
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+        void onFrame(RoutedFrame frame, int shard);
+    }
 
-    public RedisMessaging(StringRedisTemplate redisTemplate, RedisMessageListenerContainer container) {
+    public RedisMessaging(StringRedisTemplate redisTemplate, RedisMessageListenerContainer container,
+                          @Value("${chat.offline.max-backlog:1000}") int offlineBacklogCap,
+                          @Value("${chat.pubsub.shards:256}") int shards,
+                          @Value("${chat.transport.mode:pubsub}") String transport,
+                          @Value("${chat.node-id:}") String nodeId,
+                          @Value("${server.port:8081}") int serverPort,
+                          @Value("${chat.transport.streams.max-len:10000}") long streamMaxLen,
+                          @Value("${chat.transport.streams.batch-size:100}") int streamBatchSize,
+                          @Value("${chat.transport.streams.block-ms:2000}") long streamBlockMillis,
+                          @Value("${chat.presence.ttl-seconds:90}") long presenceTtlSeconds) {
         this.redisTemplate = redisTemplate;
         this.container = container;
-        this.container.addMessageListener(this, topic);
+        this.offlineBacklogCap = Math.max(1, offlineBacklogCap);
+        this.shards = Math.max(1, shards);
+        this.nodeId = resolveNodeId(nodeId, serverPort);
+        this.presenceTtl = java.time.Duration.ofSeconds(Math.max(1, presenceTtlSeconds));
+        for (int i = 0; i < subscriptionLocks.length; i++) {
+            subscriptionLocks[i] = new Object();
+        }
+        if ("streams".equals(transport.trim().toLowerCase(Locale.ROOT))) {
+            log.info("Cross-node transport: Redis Streams, node id {}", this.nodeId);
+            this.streams = new RedisStreamTransport(redisTemplate, this::receive, this.nodeId,
+                    streamMaxLen, streamBatchSize, streamBlockMillis);
+            this.streams.start();
+        } else {
+            this.streams = null;
+        }
+        subscribe(topic.getTopic());
     }
 
-    public void setHandler(Consumer<String> handler) {
-        this.handler = handler;
+    @PreDestroy
+    public void shutdown() {
+        if (streams != null) {
+            streams.stop();
+        }
     }
 
-    public void publish(Object payload) {
+    /**
+     * Consumer groups are named after the node id, so it must be stable across restarts for a
+     * restarted node to pick up where it left off.
+     */
+    private static String resolveNodeId(String configured, int port) {
+        if (configured != null && !configured.isBlank()) {
+            return configured.trim();
+        }
         try {
-            redisTemplate.convertAndSend(topic.getTopic(), objectMapper.writeValueAsString(payload));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+            return InetAddress.getLocalHost().getHostName() + "-" + port;
+        } catch (UnknownHostException e) {
+            String random = UUID.randomUUID().toString();
+            log.warn("Cannot resolve host name and chat.node-id is not set; using {}, frames will not be replayed after a restart", random);
+            return random;
         }
     }
 
-    public void addOfflineMessage(Long userId, Object payload) {
-        try {
-            String json = objectMapper.writeValueAsString(payload);
-            redisTemplate.opsForList().rightPush("offline:msg:" + userId, json);
-            // Expire after 7 days
-            redisTemplate.expire("offline:msg:" + userId, java.time.Duration.ofDays(7));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+    public void setHandler(FrameHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Publishes to every node. Kept for the public channel and cluster-wide control events.
+     */
+    public void publish(RoutedFrame frame) {
+        send(topic.getTopic(), frame.toWire());
+    }
+
+    /**
+     * Publishes to the shard channels of the given users, once per distinct shard, so only
+     * nodes holding sessions in those shards receive it.
+     */
+    public void publishToUsers(RoutedFrame frame, Long first, Long second) {
+        String wire = null;
+        int firstShard = first == null ? -1 : shardOf(first);
+        if (firstShard >= 0) {
+            wire = frame.toWire();
+            send(SHARD_PREFIX + firstShard, wire);
+        }
+        if (second != null) {
+            int secondShard = shardOf(second);
+            if (secondShard != firstShard) {
+                send(SHARD_PREFIX + secondShard, wire != null ? wire : frame.toWire());
+            }
         }
     }
 
-    public java.util.List<String> getAndClearOfflineMessages(Long userId) {
-        String key = "offline:msg:" + userId;
-        // Retrieve all messages
-        java.util.List<String> messages = redisTemplate.opsForList().range(key, 0, -1);
-        if (messages == null || messages.isEmpty()) {
-            return java.util.Collections.emptyList();
+    /**
+     * Publishes to a group's channel, which only nodes with a connected member subscribe to.
+     */
+    public void publishToGroup(RoutedFrame frame, long groupId) {
+        send(GROUP_PREFIX + groupId, frame.toWire());
+    }
+
+    private void send(String channel, String wire) {
+        if (streams != null) {
+            streams.send(channel, wire);
+        } else {
+            redisTemplate.convertAndSend(channel, wire);
         }
-        // Clear the list safely preventing race condition
-        redisTemplate.opsForList().trim(key, messages.size(), -1);
-        return messages;
+    }
+
+    public int shardOf(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) shards);
+    }
+
+    /**
+     * Call for every device that connects. The first device of a user on this node subscribes
+     * the node to the user's shard and to the channels of the user's groups.
+     */
+    public void userConnected(long userId, Collection<Long> groupIds) {
+        List<String> changed = new ArrayList<>();
+        localUsers.compute(userId, (id, current) -> {
+            if (current != null) {
+                current.devices++;
+                return current;
+            }
+            LocalUser user = new LocalUser();
+            user.devices = 1;
+            retain(SHARD_PREFIX + shardOf(userId), changed);
+            for (Long groupId : groupIds) {
+                if (user.groups.add(groupId)) {
+                    retain(GROUP_PREFIX + groupId, changed);
+                }
+            }
+            return user;
+        });
+        changed.forEach(this::sync);
+    }
+
+    /**
+     * Call for every device that disconnects; the last one drops the user's subscriptions.
+     */
+    public void userDisconnected(long userId) {
+        List<String> changed = new ArrayList<>();
+        localUsers.computeIfPresent(userId, (id, current) -> {
+            if (--current.devices > 0) {
+                return current;
+            }
+            release(SHARD_PREFIX + shardOf(userId), changed);
+            for (Long groupId : current.groups) {
+                release(GROUP_PREFIX + groupId, changed);
+            }
+            return null;
+        });
+        changed.forEach(this::sync);
+    }
+
+    public void userJoinedGroup(long userId, long groupId) {
+        List<String> changed = new ArrayList<>(1);
+        localUsers.computeIfPresent(userId, (id, current) -> {
+            if (current.groups.add(groupId)) {
+                retain(GROUP_PREFIX + groupId, changed);
+            }
+            return current;
+        });
+        changed.forEach(this::sync);
+    }
+
+    public void userLeftGroup(long userId, long groupId) {
+        List<String> changed = new ArrayList<>(1);
+        localUsers.computeIfPresent(userId, (id, current) -> {
+            if (current.groups.remove(groupId)) {
+                release(GROUP_PREFIX + groupId, changed);
+            }
+            return current;
+        });
+        changed.forEach(this::sync);
+    }
+
+    public int subscribedChannels() {
+        return channelRefs.size();
+    }
+
+    /**
+     * Counts one more reason to stay subscribed; the first one adds the channel to {@code changed}.
+     * Only bookkeeping, so it is safe inside a map's compute; the I/O happens in {@link #sync}.
+     */
+    private void retain(String channel, List<String> changed) {
+        if (channelRefs.merge(channel, 1, Integer::sum) == 1) {
+            changed.add(channel);
+        }
+    }
+
+    /**
+     * Counts one reason less; the last one adds the channel to {@code changed}.
+     */
+    private void release(String channel, List<String> changed) {
+        if (channelRefs.computeIfPresent(channel, (k, refs) -> refs > 1 ? refs - 1 : null) == null) {
+            changed.add(channel);
+        }
+    }
+
+    /**
+     * Subscribes or unsubscribes so the channel matches its current reference count. Runs after
+     * the compute that changed the count, serialized per channel, so a release racing a retain
+     * always ends in the state of whichever count was written last.
+     */
+    private void sync(String channel) {
+        synchronized (subscriptionLocks[Math.floorMod(channel.hashCode(), subscriptionLocks.length)]) {
+            boolean wanted = channelRefs.containsKey(channel);
+            if (wanted && !subscribed.contains(channel)) {
+                subscribe(channel);
+                subscribed.add(channel);
+            } else if (!wanted && subscribed.remove(channel)) {
+                if (streams != null) {
+                    streams.unsubscribe(channel);
+                } else {
+                    container.removeMessageListener(this, new ChannelTopic(channel));
+                }
+            }
+        }
+    }
+
+    private void subscribe(String channel) {
+        if (streams != null) {
+            streams.subscribe(channel);
+        } else {
+            container.addMessageListener(this, new ChannelTopic(channel));
+        }
+    }
+
+    /**
+     * Queues an already-serialized event for a user who is offline, in one round trip.
+     * Returns false if the user is online (the live broadcast reaches them instead).
+     */
+    public boolean offerOfflineMessage(Long userId, String json) {
+        return offerOfflineMessages(java.util.List.of(userId), json) > 0;
+    }
+
+    /**
+     * Batch variant for group messages: one script call checks presence and queues the event
+     * for every offline user among {@code userIds}. Returns how many users it was queued for.
+     */
+    public int offerOfflineMessages(java.util.Collection<Long> userIds, String json) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        java.util.List<String> keys = new java.util.ArrayList<>(userIds.size() * 3);
+        for (Long userId : userIds) {
+            keys.add("online:" + userId);
+            keys.add("offline:msg:" + userId);
+            keys.add("offline:dropped:" + userId);
+        }
+        Long queued = redisTemplate.execute(OFFER_OFFLINE, keys, json,
+                String.valueOf(offlineBacklogCap), String.valueOf(OFFLINE_TTL.getSeconds()));
+        return queued == null ? 0 : queued.intValue();
+    }
+
+    /**
+     * Returns and resets the number of events trimmed from the user's backlog by the cap.
+     */
+    public long takeOfflineOverflow(Long userId) {
+        String dropped = redisTemplate.opsForValue().getAndDelete("offline:dropped:" + userId);
+        return dropped == null ? 0 : Long.parseLong(dropped);
+    }
+
+    /**
+     * Removes and returns up to {@code count} of the oldest queued events (LPOP with a count,
+     * Redis 6.2+). Each call is atomic, so a backlog is streamed in bounded chunks.
+     */
+    public java.util.List<String> popOfflineMessages(Long userId, int count) {
+        java.util.List<String> messages = redisTemplate.opsForList().leftPop("offline:msg:" + userId, count);
+        return messages == null ? java.util.Collections.emptyList() : messages;
+    }
+
+    /**
+     * Puts events that were popped but never delivered back at the head of the queue, in
+     * their original order.
+     */
+    public void requeueOfflineMessages(Long userId, java.util.List<String> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        String key = "offline:msg:" + userId;
+        java.util.List<String> reversed = new java.util.ArrayList<>(messages);
+        java.util.Collections.reverse(reversed);
+        redisTemplate.opsForList().leftPushAll(key, reversed);
+        redisTemplate.expire(key, OFFLINE_TTL);
+    }
+
+    /**
+     * Reports how many users are connected to this node and returns the sum over all nodes
+     * that reported within {@code staleMillis}. A user connected to two nodes counts twice.
+     */
+    public long reportOnlineUsers(int localUsers, long staleMillis) {
+        Long total = redisTemplate.execute(REPORT_ONLINE, PRESENCE_KEYS, nodeId, String.valueOf(localUsers),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(staleMillis));
+        return total == null ? localUsers : total;
+    }
+
+    /**
+     * Withdraws this node's contribution, e.g. on shutdown, instead of waiting for it to go stale.
+     */
+    public void clearOnlineUsers() {
+        redisTemplate.opsForHash().delete(PRESENCE_KEYS.get(0), nodeId);
+        redisTemplate.opsForZSet().remove(PRESENCE_KEYS.get(1), nodeId);
     }
 
     public void markUserOnline(Long userId) {
-        redisTemplate.opsForValue().set("online:" + userId, "1", java.time.Duration.ofMinutes(10)); // Heartbeat ttl
+        redisTemplate.opsForValue().set("online:" + userId, "1", presenceTtl); // Kept alive by refreshOnline
+    }
+
+    /**
+     * Re-asserts presence for users connected to this node: one pipelined SET with the presence
+     * TTL per user, sent in chunks so a large node doesn't build one huge reply. SET rather than
+     * EXPIRE, so a key deleted by another node's last disconnect comes back.
+     */
+    public void refreshOnline(Collection<Long> userIds, int chunkSize) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        byte[] one = "1".getBytes(StandardCharsets.UTF_8);
+        Expiration ttl = Expiration.from(presenceTtl);
+        List<Long> ids = List.copyOf(userIds);
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + chunkSize));
+            redisTemplate.executePipelined((RedisCallback<Object>) c -> {
+                for (Long id : chunk) {
+                    c.stringCommands().set(("online:" + id).getBytes(StandardCharsets.UTF_8), one, ttl, SetOption.upsert());
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * The subset of {@code userIds} that is online anywhere in the cluster, in one MGET.
+     */
+    public List<Long> onlineAmong(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return List.of();
+        }
+        List<String> keys = new java.util.ArrayList<>(userIds.size());
+        for (Long id : userIds) {
+            keys.add("online:" + id);
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        List<Long> online = new java.util.ArrayList<>();
+        for (int i = 0; values != null && i < values.size(); i++) {
+            if (values.get(i) != null) {
+                online.add(userIds.get(i));
+            }
+        }
+        return online;
     }
 
     public void markUserOffline(Long userId) {
@@ -78,8 +460,28 @@ public class RedisMessaging implements MessageListener {
 
     @Override
     public void onMessage(Message message, byte[] pattern) {
+        receive(new String(message.getChannel(), StandardCharsets.UTF_8), message.getBody());
+    }
+
+    private void receive(String channel, byte[] body) {
         if (handler != null) {
-            handler.accept(new String(message.getBody()));
+            RoutedFrame frame = RoutedFrame.fromWire(body);
+            if (frame != null) {
+                handler.onFrame(frame, shardOfChannel(channel));
+            }
         }
     }
+
+    private static int shardOfChannel(String channel) {
+        return channel.startsWith(SHARD_PREFIX) ? Integer.parseInt(channel.substring(SHARD_PREFIX.length())) : -1;
+    }
+
+    /**
+     * Devices and group subscriptions of one user on this node; only touched inside
+     * {@code localUsers.compute}.
+     */
+    private static final class LocalUser {
+        int devices;
+        final Set<Long> groups = new HashSet<>();
+    }
 }
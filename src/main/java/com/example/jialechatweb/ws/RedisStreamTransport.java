@@ -0,0 +1,307 @@
+package com.example.jialechatweb.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * At-least-once alternative to pub/sub: every channel is a Redis stream
+ * ({@code chat:stream:<channel>}) capped with {@code MAXLEN ~}, and every node reads the streams
+ * it subscribes to through its own consumer group, named after the node id.
+ * <p>
+ * One poller thread reads all subscribed streams with a single blocking {@code XREADGROUP} and
+ * acks each batch after handing it to the receiver. A blocking read returns as soon as any
+ * stream has data, so the only latency added over pub/sub is the XADD reply and the batch ack.
+ * Subscription changes are written to a small per-node control stream that is part of every
+ * read, which wakes the poller instead of waiting for the block timeout.
+ * <p>
+ * {@link #subscribe} creates the node's group ({@code XGROUP CREATE ... $ MKSTREAM}) before it
+ * returns, so a frame published right after a user's subscription (and before the poller's next
+ * round) is already behind the group's position and is delivered, not skipped. The poller only
+ * creates groups itself when that failed or after it reconnects.
+ * <p>
+ * Replay: the first time this process subscribes to a stream whose group already exists (the
+ * node restarted or lost its connection), it first re-reads its own pending entries and then
+ * continues from the group's last delivered id, so frames published while it was away are
+ * delivered. A stream that is resubscribed later in the same process starts at the end, since
+ * its users were reconnected and have been served by the offline queue instead.
+ */
+class RedisStreamTransport {
+    private static final Logger log = LoggerFactory.getLogger(RedisStreamTransport.class);
+    private static final String STREAM_PREFIX = "chat:stream:";
+    private static final byte[] FIELD = "f".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WAKE = "wake".getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisConnectionFactory connectionFactory;
+    private final BiConsumer<String, byte[]> receiver;
+    private final String group;
+    private final Consumer consumer;
+    private final byte[] controlKey;
+    private final XAddOptions addOptions;
+    private final int batchSize;
+    private final Duration block;
+    // Stream key -> read state; written by subscribers, the poller picks changes up on its next round
+    private final ConcurrentHashMap<String, StreamState> streams = new ConcurrentHashMap<>();
+    // Streams this process has set up at least once; only the first setup replays the backlog
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    private Thread poller;
+
+    RedisStreamTransport(StringRedisTemplate redisTemplate, BiConsumer<String, byte[]> receiver, String nodeId,
+                         long maxLen, int batchSize, long blockMillis) {
+        this.redisTemplate = redisTemplate;
+        this.connectionFactory = redisTemplate.getRequiredConnectionFactory();
+        this.receiver = receiver;
+        this.group = "node:" + nodeId;
+        this.consumer = Consumer.from(group, nodeId);
+        this.controlKey = (STREAM_PREFIX + "node:" + nodeId).getBytes(StandardCharsets.UTF_8);
+        this.addOptions = XAddOptions.maxlen(Math.max(1, maxLen)).approximateTrimming(true);
+        this.batchSize = Math.max(1, batchSize);
+        this.block = Duration.ofMillis(Math.max(1, blockMillis));
+    }
+
+    void start() {
+        poller = new Thread(this::runPoller, "redis-stream-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    void stop() {
+        running = false;
+        if (poller != null) {
+            try {
+                // The blocking read returns within the block timeout
+                poller.join(block.toMillis() + TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void send(String channel, String wire) {
+        byte[] key = keyOf(channel);
+        byte[] value = wire.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<RecordId>) c -> c.streamCommands()
+                .xAdd(StreamRecords.rawBytes(Map.of(FIELD, value)).withStreamKey(key), addOptions));
+    }
+
+    void subscribe(String channel) {
+        StreamState state = new StreamState(channel);
+        try {
+            redisTemplate.execute((RedisCallback<Void>) c -> {
+                setUp(c, state.key, state);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // Left unready; the poller creates the group on its next round
+            log.warn("Failed to create consumer group for {}: {}", channel, e.getMessage());
+        }
+        streams.put(STREAM_PREFIX + channel, state);
+        wake();
+    }
+
+    void unsubscribe(String channel) {
+        // No wake: reading a stream a little longer is harmless, the receiver drops what it doesn't route
+        streams.remove(STREAM_PREFIX + channel);
+    }
+
+    int subscribedStreams() {
+        return streams.size();
+    }
+
+    private void wake() {
+        try {
+            redisTemplate.execute((RedisCallback<RecordId>) c -> c.streamCommands()
+                    .xAdd(StreamRecords.rawBytes(Map.of(FIELD, WAKE)).withStreamKey(controlKey),
+                            XAddOptions.maxlen(16).approximateTrimming(true)));
+        } catch (RuntimeException e) {
+            log.warn("Failed to wake stream poller: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] keyOf(String channel) {
+        return (STREAM_PREFIX + channel).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void runPoller() {
+        RedisConnection connection = null;
+        while (running) {
+            try {
+                if (connection == null || connection.isClosed()) {
+                    connection = connectionFactory.getConnection();
+                    setUp(connection, controlKey, null);
+                }
+                poll(connection);
+            } catch (RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Redis stream poll failed, reconnecting: {}", e.getMessage());
+                closeQuietly(connection);
+                connection = null;
+                // Groups are recreated on the new connection; pending entries are replayed
+                streams.values().forEach(s -> s.ready = false);
+                seen.clear();
+                sleep(block.toMillis());
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    private void poll(RedisConnection connection) {
+        List<StreamState> states = new ArrayList<>(streams.values());
+        List<StreamOffset<byte[]>> offsets = new ArrayList<>(states.size() + 1);
+        offsets.add(StreamOffset.create(controlKey, ReadOffset.lastConsumed()));
+        boolean replaying = false;
+        for (StreamState state : states) {
+            if (!state.ready) {
+                setUp(connection, state.key, state);
+            }
+            if (state.pendingFrom != null) {
+                replaying = true;
+                offsets.add(StreamOffset.create(state.key, ReadOffset.from(state.pendingFrom)));
+            } else {
+                offsets.add(StreamOffset.create(state.key, ReadOffset.lastConsumed()));
+            }
+        }
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        if (!replaying) {
+            options = options.block(block);
+        }
+        @SuppressWarnings("unchecked")
+        List<ByteRecord> records = connection.streamCommands()
+                .xReadGroup(consumer, options, offsets.toArray(new StreamOffset[0]));
+
+        Map<String, List<RecordId>> acks = new LinkedHashMap<>();
+        Map<String, Integer> pendingCounts = new LinkedHashMap<>();
+        for (ByteRecord record : records == null ? List.<ByteRecord>of() : records) {
+            String key = new String(record.getStream(), StandardCharsets.UTF_8);
+            acks.computeIfAbsent(key, k -> new ArrayList<>()).add(record.getId());
+            StreamState state = streams.get(key);
+            if (state == null) {
+                continue;
+            }
+            if (state.pendingFrom != null) {
+                pendingCounts.merge(key, 1, Integer::sum);
+                state.pendingFrom = record.getId().getValue();
+            }
+            byte[] body = field(record.getValue());
+            if (body != null) {
+                try {
+                    receiver.accept(state.channel, body);
+                } catch (RuntimeException e) {
+                    log.error("Failed to handle frame from {}", key, e);
+                }
+            }
+        }
+        for (StreamState state : states) {
+            // A short page of pending entries means the history is done; switch to new entries
+            if (state.pendingFrom != null && pendingCounts.getOrDefault(new String(state.key, StandardCharsets.UTF_8), 0) < batchSize) {
+                state.pendingFrom = null;
+            }
+        }
+        acks.forEach((key, ids) -> connection.streamCommands()
+                .xAck(key.getBytes(StandardCharsets.UTF_8), group, ids.toArray(new RecordId[0])));
+    }
+
+    /**
+     * Creates this node's group on a stream, or positions an existing one: replay on the first
+     * setup in this process, skip to the end afterwards.
+     */
+    private void setUp(RedisConnection connection, byte[] key, StreamState state) {
+        String name = new String(key, StandardCharsets.UTF_8);
+        boolean firstTime = seen.add(name);
+        try {
+            connection.streamCommands().xGroupCreate(key, group, ReadOffset.latest(), true);
+        } catch (RuntimeException e) {
+            if (!isBusyGroup(e)) {
+                throw e;
+            }
+            if (state != null) {
+                if (firstTime) {
+                    state.pendingFrom = "0";
+                } else {
+                    connection.execute("XGROUP", "SETID".getBytes(StandardCharsets.UTF_8), key,
+                            group.getBytes(StandardCharsets.UTF_8), "$".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        if (state != null) {
+            state.ready = true;
+        }
+    }
+
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] field(Map<byte[], byte[]> value) {
+        // byte[] keys compare by identity, so the map can't be looked up directly
+        for (Map.Entry<byte[], byte[]> e : value.entrySet()) {
+            if (Arrays.equals(e.getKey(), FIELD)) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void closeQuietly(RedisConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (RuntimeException ignored) {
+                // already broken
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class StreamState {
+        final String channel;
+        final byte[] key;
+        // Set up by the subscriber before the state is published, then only touched by the poller
+        boolean ready;
+        String pendingFrom;
+
+        StreamState(String channel) {
+            this.channel = channel;
+            this.key = keyOf(channel);
+        }
+    }
+}
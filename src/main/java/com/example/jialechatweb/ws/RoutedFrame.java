@@ -0,0 +1,173 @@
+package com.example.jialechatweb.ws;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * An event serialized exactly once, plus the routing fields {@code deliver} needs.
+ * <p>
+ * On the Redis bus a frame travels as a one-line ASCII header followed by the JSON body:
+ * {@code type|senderId|receiverId|groupId\n{...json...}}. Receivers route on the header and
+ * wrap the body bytes in a single {@link TextMessage} shared by every target session, so the
+ * JSON is never parsed back into an {@code Event} just to be written out again.
+ */
+public final class RoutedFrame {
+    private static final char SEP = '|';
+
+    private final String type;
+    private final Long senderId;
+    private final Long receiverId;
+    private final Long groupId;
+    private final String json;
+    private TextMessage textMessage;
+    private BinaryMessage cborMessage;
+
+    RoutedFrame(String type, Long senderId, Long receiverId, Long groupId, String json) {
+        this.type = type;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+        this.groupId = groupId;
+        this.json = json;
+    }
+
+    /**
+     * Serializes the event once and lifts the routing ids out of its data map.
+     */
+    public static RoutedFrame of(ChatWebSocketHandler.Event event, ObjectMapper mapper) throws JsonProcessingException {
+        Map<String, Object> data = event.data;
+        Long senderId = null;
+        Long receiverId = null;
+        Long groupId = null;
+        if (data != null) {
+            switch (event.type) {
+                case "message" -> {
+                    senderId = toLong(data.get("senderId"));
+                    receiverId = toLong(data.get("receiverId"));
+                    groupId = toLong(data.get("groupId"));
+                }
+                case "typing" -> {
+                    senderId = toLong(data.get("from"));
+                    receiverId = toLong(data.get("to"));
+                    groupId = toLong(data.get("groupId"));
+                }
+                case "friend_request" -> receiverId = toLong(data.get("receiverId"));
+                case "read" -> {
+                    // The reader's other devices sync too; the peer sees the receipt
+                    senderId = toLong(data.get("readerId"));
+                    receiverId = toLong(data.get("peerId"));
+                }
+                default -> { }
+            }
+        }
+        return new RoutedFrame(event.type, senderId, receiverId, groupId, mapper.writeValueAsString(event));
+    }
+
+    /**
+     * Parses a frame received from the bus. Returns null for malformed input.
+     */
+    public static RoutedFrame fromWire(byte[] body) {
+        int nl = -1;
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] == '\n') {
+                nl = i;
+                break;
+            }
+        }
+        if (nl <= 0) {
+            return null;
+        }
+        String header = new String(body, 0, nl, StandardCharsets.US_ASCII);
+        int p1 = header.indexOf(SEP);
+        int p2 = header.indexOf(SEP, p1 + 1);
+        int p3 = header.indexOf(SEP, p2 + 1);
+        if (p1 < 0 || p2 < 0 || p3 < 0) {
+            return null;
+        }
+        try {
+            return new RoutedFrame(
+                    header.substring(0, p1),
+                    parseId(header, p1 + 1, p2),
+                    parseId(header, p2 + 1, p3),
+                    parseId(header, p3 + 1, header.length()),
+                    new String(body, nl + 1, body.length - nl - 1, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public String toWire() {
+        StringBuilder sb = new StringBuilder(json.length() + 48);
+        sb.append(type).append(SEP);
+        if (senderId != null) sb.append(senderId.longValue());
+        sb.append(SEP);
+        if (receiverId != null) sb.append(receiverId.longValue());
+        sb.append(SEP);
+        if (groupId != null) sb.append(groupId.longValue());
+        sb.append('\n').append(json);
+        return sb.toString();
+    }
+
+    /**
+     * The shared outbound message; built on first use and reused for every recipient.
+     */
+    public TextMessage textMessage() {
+        TextMessage msg = textMessage;
+        if (msg == null) {
+            msg = new TextMessage(json);
+            textMessage = msg;
+        }
+        return msg;
+    }
+
+    /**
+     * The shared outbound message in the given encoding; each encoding is built once per frame.
+     */
+    public WebSocketMessage<?> message(WireFormat format) {
+        if (format != WireFormat.CBOR) {
+            return textMessage();
+        }
+        BinaryMessage msg = cborMessage;
+        if (msg == null) {
+            msg = WireFormat.toCbor(json);
+            cborMessage = msg;
+        }
+        return msg;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public Long senderId() {
+        return senderId;
+    }
+
+    public Long receiverId() {
+        return receiverId;
+    }
+
+    public Long groupId() {
+        return groupId;
+    }
+
+    public String json() {
+        return json;
+    }
+
+    private static Long parseId(String header, int from, int to) {
+        return from == to ? null : Long.parseLong(header, from, to, 10);
+    }
+
+    private static Long toLong(Object obj) {
+        if (obj == null) return null;
+        if (obj instanceof Number n) return n.longValue();
+        if (obj instanceof String s) return Long.parseLong(s);
+        return null;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.jialechatweb.ws;
+
+import com.example.jialechatweb.ratelimit.RateLimit;
+import com.example.jialechatweb.ratelimit.RateLimiter;
+import com.example.jialechatweb.util.ConcurrentLongObjectMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send budgets for chat messages: one per user, checked on every {@code send} frame before it is
+ * parsed, and one per user and conversation, checked once the target is known.
+ * <p>
+ * The per-user budget is a GCRA timestamp in an {@link AtomicLong} per user, advanced with a CAS,
+ * so the check takes no lock and allocates nothing once the user has sent a message. With
+ * {@code chat.ratelimit.send.cluster} both budgets are kept in Redis instead (one script call per
+ * check) so a user cannot multiply them by connecting devices to different nodes.
+ */
+@Component
+@Profile("!test")
+public class SendRateLimiter {
+    private final RateLimiter rateLimiter;
+    private final RateLimit perUser;
+    private final RateLimit perConversation;
+    private final boolean clusterWide;
+    private final long origin = System.nanoTime();
+    private final ConcurrentLongObjectMap<AtomicLong> userTats = new ConcurrentLongObjectMap<>(1024);
+    private final LongAdder rejected = new LongAdder();
+
+    public SendRateLimiter(RateLimiter rateLimiter,
+                           @Value("${chat.ratelimit.send.per-user-per-second:10}") int perUserPerSecond,
+                           @Value("${chat.ratelimit.send.per-user-burst:30}") int perUserBurst,
+                           @Value("${chat.ratelimit.send.per-conversation-per-second:5}") int perConversationPerSecond,
+                           @Value("${chat.ratelimit.send.per-conversation-burst:15}") int perConversationBurst,
+                           @Value("${chat.ratelimit.send.cluster:false}") boolean clusterWide) {
+        this.rateLimiter = rateLimiter;
+        this.perUser = RateLimit.of("ws-send", perUserPerSecond, Duration.ofSeconds(1), perUserBurst);
+        this.perConversation = RateLimit.of("ws-send-conv", perConversationPerSecond, Duration.ofSeconds(1), perConversationBurst);
+        this.clusterWide = clusterWide;
+    }
+
+    /**
+     * @return 0 if the user may send another message, otherwise the milliseconds until they may
+     */
+    public long acquireUser(long userId) {
+        if (clusterWide) {
+            return count(rateLimiter.acquire(perUser, userId, 0));
+        }
+        AtomicLong tat = userTats.get(userId);
+        if (tat == null) {
+            tat = userTats.compute(userId, (k, current) -> current != null ? current : new AtomicLong());
+        }
+        long now = nowMillis();
+        long interval = perUser.emissionIntervalMillis();
+        long tolerance = perUser.toleranceMillis();
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return count(wait);
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Budget for one chat; {@code conversation} is the receiver's id, or the negated group id.
+     */
+    public long acquireConversation(long userId, long conversation) {
+        return count(clusterWide
+                ? rateLimiter.acquire(perConversation, userId, conversation)
+                : rateLimiter.acquireLocal(perConversation, userId, conversation));
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.ratelimit.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        long now = nowMillis();
+        // forEach holds segment locks, so collect first and remove afterwards. A sender racing
+        // with its own removal at worst gets a fresh budget.
+        List<Long> idle = new ArrayList<>();
+        userTats.forEach((userId, tat) -> {
+            if (tat.get() <= now) {
+                idle.add(userId);
+            }
+        });
+        idle.forEach(userTats::remove);
+    }
+
+    private long count(long wait) {
+        if (wait > 0) {
+            rejected.increment();
+        }
+        return wait;
+    }
+
+    private long nowMillis() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+}
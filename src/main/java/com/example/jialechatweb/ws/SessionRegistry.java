@@ -0,0 +1,117 @@
+package com.example.jialechatweb.ws;
+
+import com.example.jialechatweb.util.ConcurrentLongObjectMap;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Local registry of connected devices: userId -> small array of that user's open sessions.
+ * <p>
+ * Arrays are copy-on-write (a user rarely has more than a handful of devices), so the send
+ * path reads the current array with no locking, boxing or allocation. Registration reports
+ * whether a user's first device arrived or last device left, which drives online state.
+ */
+@Component
+@Profile("!test")
+public class SessionRegistry {
+    private static final OutboundSession[] NONE = new OutboundSession[0];
+
+    private final ConcurrentLongObjectMap<OutboundSession[]> byUser = new ConcurrentLongObjectMap<>(1024);
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * Adds a device. Returns true if this is the user's first connected device on this node.
+     */
+    public boolean register(long userId, OutboundSession session) {
+        boolean[] first = new boolean[1];
+        byUser.compute(userId, (id, current) -> {
+            if (current == null) {
+                first[0] = true;
+                return new OutboundSession[]{session};
+            }
+            OutboundSession[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = session;
+            return next;
+        });
+        sessionCount.incrementAndGet();
+        return first[0];
+    }
+
+    /**
+     * Removes a device. Returns true if it was the user's last connected device on this node.
+     */
+    public boolean unregister(long userId, OutboundSession session) {
+        boolean[] removed = new boolean[1];
+        OutboundSession[] left = byUser.compute(userId, (id, current) -> {
+            if (current == null) {
+                return null;
+            }
+            int idx = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == session) {
+                    idx = i;
+                    break;
+                }
+            }
+            if (idx < 0) {
+                return current;
+            }
+            removed[0] = true;
+            if (current.length == 1) {
+                return null;
+            }
+            OutboundSession[] next = new OutboundSession[current.length - 1];
+            System.arraycopy(current, 0, next, 0, idx);
+            System.arraycopy(current, idx + 1, next, idx, current.length - idx - 1);
+            return next;
+        });
+        if (removed[0]) {
+            sessionCount.decrementAndGet();
+        }
+        return removed[0] && left == null;
+    }
+
+    /**
+     * The user's current devices; a shared array that must not be modified.
+     */
+    public OutboundSession[] sessionsOf(long userId) {
+        OutboundSession[] sessions = byUser.get(userId);
+        return sessions == null ? NONE : sessions;
+    }
+
+    public boolean isConnected(long userId) {
+        return byUser.containsKey(userId);
+    }
+
+    public int userCount() {
+        return byUser.size();
+    }
+
+    public int sessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Visits every user's devices as of a snapshot taken segment by segment, with no lock held
+     * while {@code action} runs, so it may send, close sessions or trigger an unregister. Devices
+     * that disconnected after the snapshot can still be visited; their queues reject frames.
+     */
+    public void forEachUser(ConcurrentLongObjectMap.LongObjectConsumer<OutboundSession[]> action) {
+        byUser.forEachSnapshot(action);
+    }
+
+    /**
+     * Visits every device; same snapshot semantics as {@link #forEachUser}.
+     */
+    public void forEachSession(Consumer<OutboundSession> action) {
+        byUser.forEachSnapshot((userId, sessions) -> {
+            for (OutboundSession s : sessions) {
+                action.accept(s);
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.jialechatweb.ws;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the client's stream of typing pings into start/stop transitions per (sender, chat).
+ * <p>
+ * A sender emits at most one {@code START} per {@code window-ms} for a chat: the first ping
+ * announces it, further pings only push the idle deadline out, and a long typing streak is
+ * re-announced once per window so clients can expire a stale indicator on their own. A
+ * {@code STOP} follows when the sender goes quiet for {@code idle-ms} or sends an explicit stop,
+ * and only for an announced start, so stops are bounded the same way. Sending a message ends
+ * typing silently, since the message itself clears the indicator.
+ */
+@Component
+@Profile("!test")
+public class TypingCoalescer {
+    public enum Signal { START, STOP }
+
+    public record Target(long senderId, boolean group, long targetId) {}
+
+    @FunctionalInterface
+    public interface Emitter {
+        void emit(Target target, Signal signal);
+    }
+
+    private final long windowNanos;
+    private final long idleNanos;
+    private final ConcurrentHashMap<Target, State> states = new ConcurrentHashMap<>();
+    private volatile Emitter emitter;
+
+    public TypingCoalescer(@Value("${chat.typing.window-ms:5000}") long windowMillis,
+                           @Value("${chat.typing.idle-ms:4000}") long idleMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleMillis));
+    }
+
+    public void setEmitter(Emitter emitter) {
+        this.emitter = emitter;
+    }
+
+    /**
+     * The sender typed something.
+     */
+    public void input(Target target, long nowNanos) {
+        boolean[] start = new boolean[1];
+        states.compute(target, (k, s) -> {
+            if (s == null) {
+                s = new State();
+            }
+            s.lastInput = nowNanos;
+            if (!s.typing) {
+                s.typing = true;
+                start[0] = s.tryAnnounce(nowNanos, windowNanos);
+            }
+            return s;
+        });
+        if (start[0]) {
+            emit(target, Signal.START);
+        }
+    }
+
+    /**
+     * The sender cleared the input or left the chat.
+     */
+    public void stop(Target target) {
+        boolean[] stop = new boolean[1];
+        states.computeIfPresent(target, (k, s) -> {
+            stop[0] = s.end();
+            return s;
+        });
+        if (stop[0]) {
+            emit(target, Signal.STOP);
+        }
+    }
+
+    /**
+     * The sender sent a message; the message clears the indicator, so nothing is emitted.
+     */
+    public void messageSent(Target target) {
+        states.computeIfPresent(target, (k, s) -> {
+            s.end();
+            return s;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${chat.typing.sweep-ms:1000}")
+    public void sweep() {
+        sweep(System.nanoTime());
+    }
+
+    void sweep(long nowNanos) {
+        states.forEach((target, ignored) -> {
+            Signal[] signal = new Signal[1];
+            states.computeIfPresent(target, (k, s) -> {
+                if (s.typing && nowNanos - s.lastInput > idleNanos) {
+                    signal[0] = s.end() ? Signal.STOP : null;
+                } else if (s.typing && s.tryAnnounce(nowNanos, windowNanos)) {
+                    // Deferred start after a quick stop/start, or the once-per-window refresh
+                    signal[0] = Signal.START;
+                }
+                // Idle entries are kept until a start would be allowed again, to honor the window
+                return !s.typing && nowNanos - s.lastStart >= windowNanos ? null : s;
+            });
+            if (signal[0] != null) {
+                emit(target, signal[0]);
+            }
+        });
+    }
+
+    int tracked() {
+        return states.size();
+    }
+
+    private void emit(Target target, Signal signal) {
+        Emitter e = emitter;
+        if (e != null) {
+            e.emit(target, signal);
+        }
+    }
+
+    /**
+     * Typing state of one sender in one chat; only touched inside {@code states.compute}.
+     */
+    private static final class State {
+        boolean typing;
+        boolean announced;
+        long lastInput;
+        long lastStart;
+        boolean everStarted;
+
+        boolean tryAnnounce(long now, long window) {
+            if (everStarted && now - lastStart < window) {
+                return false;
+            }
+            everStarted = true;
+            lastStart = now;
+            announced = true;
+            return true;
+        }
+
+        /**
+         * Stops typing; true if a start had been announced and now needs a stop.
+         */
+        boolean end() {
+            typing = false;
+            boolean wasAnnounced = announced;
+            announced = false;
+            return wasAnnounced;
+        }
+    }
+}
@@ -16,10 +16,13 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     private final ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider;
     private final AuthHandshakeInterceptor authHandshakeInterceptor;
+    private final ChatHandshakeHandler chatHandshakeHandler;
 
-    public WebSocketConfig(ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider, AuthHandshakeInterceptor authHandshakeInterceptor) {
+    public WebSocketConfig(ObjectProvider<ChatWebSocketHandler> chatWebSocketHandlerProvider, AuthHandshakeInterceptor authHandshakeInterceptor,
+                           ChatHandshakeHandler chatHandshakeHandler) {
         this.chatWebSocketHandlerProvider = chatWebSocketHandlerProvider;
         this.authHandshakeInterceptor = authHandshakeInterceptor;
+        this.chatHandshakeHandler = chatHandshakeHandler;
     }
 
     @Override
@@ -27,6 +30,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
         ChatWebSocketHandler handler = chatWebSocketHandlerProvider.getIfAvailable();
         if (handler != null) {
             registry.addHandler(handler, "/ws")
+                    .setHandshakeHandler(chatHandshakeHandler)
                     .addInterceptors(authHandshakeInterceptor)
                     .setAllowedOrigins("*");
         }
@@ -0,0 +1,160 @@
+package com.example.jialechatweb.ws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-connection frame encoding, chosen at handshake with {@code /ws?format=cbor}.
+ * <ul>
+ *   <li>{@code JSON} - text frames, the browser client's protocol.</li>
+ *   <li>{@code CBOR} - binary frames with the same structure as the JSON ones, except that
+ *   server-assigned ids ({@link #ID_FIELDS}) are CBOR integers instead of the decimal strings
+ *   JSON needs for JavaScript. Client-chosen values such as {@code tempId} are echoed as sent.
+ *   Clients may send CBOR or JSON frames.</li>
+ * </ul>
+ */
+public enum WireFormat {
+    JSON, CBOR;
+
+    public static final String ATTRIBUTE = "wireFormat";
+
+    // Fields holding server-assigned numeric ids; anything else keeps its JSON type
+    private static final Set<String> ID_FIELDS = Set.of(
+            "id", "conversationId", "groupId", "senderId", "receiverId", "userId", "friendId", "peerId",
+            "readerId", "lastReadId", "messageId", "peerReadId", "requestId", "requesterId", "toUserId",
+            "from", "to");
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final CBORMapper CBOR_MAPPER = new CBORMapper();
+    // CBOR for a 2-entry map: "type" -> "batch", "data" -> (array header follows)
+    private static final byte[] CBOR_BATCH_HEADER = {
+            (byte) 0xA2,
+            0x64, 't', 'y', 'p', 'e', 0x65, 'b', 'a', 't', 'c', 'h',
+            0x64, 'd', 'a', 't', 'a'
+    };
+
+    public static WireFormat fromParam(String value) {
+        return value != null && "cbor".equals(value.trim().toLowerCase(Locale.ROOT)) ? CBOR : JSON;
+    }
+
+    public static WireFormat of(Map<String, Object> attributes) {
+        Object format = attributes == null ? null : attributes.get(ATTRIBUTE);
+        return format instanceof WireFormat f ? f : JSON;
+    }
+
+    /**
+     * Re-encodes a serialized JSON frame as CBOR.
+     */
+    public static BinaryMessage toCbor(String json) {
+        try {
+            JsonNode tree = JSON_MAPPER.readTree(json);
+            compactIds(tree);
+            return new BinaryMessage(CBOR_MAPPER.writeValueAsBytes(tree));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * True if {@code message} is a data frame in this encoding, which can go into a batch.
+     */
+    public boolean batchable(WebSocketMessage<?> message) {
+        return this == CBOR ? message instanceof BinaryMessage : message instanceof TextMessage;
+    }
+
+    /**
+     * Wraps already-encoded frames into one {@code {"type":"batch","data":[...]}} frame without
+     * re-parsing them: the JSON payloads are joined as text, the CBOR items are appended after
+     * a hand-written map/array header. At most 255 frames.
+     */
+    public WebSocketMessage<?> batch(List<WebSocketMessage<?>> frames) {
+        if (this == JSON) {
+            int size = 32;
+            for (WebSocketMessage<?> f : frames) {
+                size += f.getPayloadLength() + 1;
+            }
+            StringBuilder sb = new StringBuilder(size).append("{\"type\":\"batch\",\"data\":[");
+            for (int i = 0; i < frames.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(((TextMessage) frames.get(i)).getPayload());
+            }
+            return new TextMessage(sb.append("]}"));
+        }
+        int n = frames.size();
+        int size = CBOR_BATCH_HEADER.length + 2;
+        for (WebSocketMessage<?> f : frames) {
+            size += f.getPayloadLength();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(CBOR_BATCH_HEADER);
+        if (n < 24) {
+            out.put((byte) (0x80 | n));
+        } else {
+            out.put((byte) 0x98).put((byte) n);
+        }
+        for (WebSocketMessage<?> f : frames) {
+            out.put(((BinaryMessage) f).getPayload().duplicate());
+        }
+        out.flip();
+        return new BinaryMessage(out);
+    }
+
+    public static JsonNode readCbor(ByteBuffer payload) throws IOException {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return CBOR_MAPPER.readTree(bytes);
+    }
+
+    private static void compactIds(JsonNode node) {
+        if (node instanceof ObjectNode object) {
+            for (Map.Entry<String, JsonNode> e : object.properties()) {
+                if (e.getValue().isTextual() && ID_FIELDS.contains(e.getKey())) {
+                    Long id = parseId(e.getValue().textValue());
+                    if (id != null) {
+                        e.setValue(LongNode.valueOf(id));
+                    }
+                } else {
+                    compactIds(e.getValue());
+                }
+            }
+        } else if (node instanceof ArrayNode array) {
+            for (JsonNode item : array) {
+                compactIds(item);
+            }
+        }
+    }
+
+    private static Long parseId(String text) {
+        if (text.isEmpty() || text.length() > 19) {
+            return null;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
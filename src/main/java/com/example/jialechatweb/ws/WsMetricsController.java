@@ -0,0 +1,51 @@
+package com.example.jialechatweb.ws;
+
+import com.example.jialechatweb.friend.FriendGraphCache;
+import com.example.jialechatweb.oss.SignedUrlCache;
+import com.example.jialechatweb.security.JwtService;
+import com.example.jialechatweb.user.UserProfileCache;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/ws")
+@Profile("!test")
+public class WsMetricsController {
+    private final OutboundDispatcher outboundDispatcher;
+    private final OnlineCountPublisher onlineCount;
+    private final UserProfileCache profileCache;
+    private final SignedUrlCache signedUrls;
+    private final JwtService jwtService;
+    private final SendRateLimiter sendRateLimiter;
+    private final FriendGraphCache friendGraph;
+
+    public WsMetricsController(OutboundDispatcher outboundDispatcher, OnlineCountPublisher onlineCount,
+                               UserProfileCache profileCache, SignedUrlCache signedUrls, JwtService jwtService,
+                               SendRateLimiter sendRateLimiter, FriendGraphCache friendGraph) {
+        this.outboundDispatcher = outboundDispatcher;
+        this.onlineCount = onlineCount;
+        this.profileCache = profileCache;
+        this.signedUrls = signedUrls;
+        this.jwtService = jwtService;
+        this.sendRateLimiter = sendRateLimiter;
+        this.friendGraph = friendGraph;
+    }
+
+    @GetMapping("/metrics")
+    public Map<String, Object> metrics() {
+        Map<String, Object> res = new HashMap<>();
+        res.put("outbound", outboundDispatcher.stats());
+        res.put("onlineCount", onlineCount.lastCount());
+        res.put("profileCache", profileCache.stats());
+        res.put("signedUrlCache", signedUrls.stats());
+        res.put("tokenCache", jwtService.cacheStats());
+        res.put("sendRateLimited", sendRateLimiter.rejected());
+        res.put("friendGraph", friendGraph.stats());
+        return res;
+    }
+}
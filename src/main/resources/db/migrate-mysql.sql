@@ -0,0 +1,34 @@
+-- Idempotent upgrades for MySQL databases created from an older schema.sql.
+-- CREATE TABLE IF NOT EXISTS leaves existing tables alone, so index changes made there only
+-- reach new installs. Runs after schema.sql on every startup (spring.sql.init.schema-locations);
+-- every step checks information_schema first, so running it again is a no-op. MySQL has no ADD/DROP INDEX IF [NOT] EXISTS, hence the
+-- prepared statements.
+
+-- messages: history is paged and ordered by id, so index (x, id) instead of (x, created_at).
+-- New indexes go in before the old ones are dropped, so the table is never left without one.
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE messages ADD INDEX idx_conv_id (conversation_id, id)', 'DO 0')
+            FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = 'messages' AND index_name = 'idx_conv_id');
+PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE messages ADD INDEX idx_group_id (group_id, id)', 'DO 0')
+            FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = 'messages' AND index_name = 'idx_group_id');
+PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) > 0, 'ALTER TABLE messages DROP INDEX idx_conv_created', 'DO 0')
+            FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = 'messages' AND index_name = 'idx_conv_created');
+PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+SET @ddl = (SELECT IF(COUNT(*) > 0, 'ALTER TABLE messages DROP INDEX idx_group_created', 'DO 0')
+            FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = 'messages' AND index_name = 'idx_group_created');
+PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
+
+-- group_members: a user's groups are loaded by user_id on connect. The index MySQL created
+-- implicitly for fk_gm_user is dropped on its own once this one can serve the foreign key.
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE group_members ADD INDEX idx_gm_user (user_id)', 'DO 0')
+            FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = 'group_members' AND index_name = 'idx_gm_user');
+PREPARE stmt FROM @ddl; EXECUTE stmt; DEALLOCATE PREPARE stmt;
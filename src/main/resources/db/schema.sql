@@ -1,3 +1,6 @@
+-- New installs get the current indexes from the CREATE TABLE statements below. Databases created
+-- from an older version of this file also need db/migrate-mysql.sql.
+
 CREATE TABLE IF NOT EXISTS users (
   id BIGINT PRIMARY KEY AUTO_INCREMENT,
   username VARCHAR(64) NOT NULL UNIQUE,
@@ -44,7 +47,8 @@ CREATE TABLE IF NOT EXISTS group_members (
   user_id BIGINT NOT NULL,
   CONSTRAINT fk_gm_group FOREIGN KEY (group_id) REFERENCES `groups`(id),
   CONSTRAINT fk_gm_user FOREIGN KEY (user_id) REFERENCES users(id),
-  UNIQUE KEY uk_group_user (group_id, user_id)
+  UNIQUE KEY uk_group_user (group_id, user_id),
+  INDEX idx_gm_user (user_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 CREATE TABLE IF NOT EXISTS messages (
@@ -57,11 +61,19 @@ CREATE TABLE IF NOT EXISTS messages (
   content_type VARCHAR(32) NOT NULL DEFAULT 'text',
   is_read TINYINT(1) NOT NULL DEFAULT 0,
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-  INDEX idx_conv_created (conversation_id, created_at),
-  INDEX idx_group_created (group_id, created_at),
+  INDEX idx_conv_id (conversation_id, id),
+  INDEX idx_group_id (group_id, id),
   INDEX idx_receiver_read (receiver_id, is_read)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+CREATE TABLE IF NOT EXISTS read_watermarks (
+  user_id BIGINT NOT NULL,
+  peer_id BIGINT NOT NULL,
+  last_read_id BIGINT NOT NULL,
+  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (user_id, peer_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 CREATE TABLE IF NOT EXISTS error_logs (
   id BIGINT PRIMARY KEY AUTO_INCREMENT,
   user_id BIGINT,
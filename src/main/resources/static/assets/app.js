@@ -172,18 +172,25 @@ function setupEventListeners() {
       sendMessage();
     }
   };
+  // The server coalesces these into start/stop events, so a ping every couple of seconds is enough
+  const typingTarget = () => state.currentGroupId ? { groupId: state.currentGroupId } : { toUserId: state.currentFriend };
   const handleTyping = throttle(() => {
-    if (state.ws && state.currentFriend) {
-      state.ws.send(JSON.stringify({ type: "typing", data: { toUserId: state.currentFriend } }));
+    if (state.ws && state.ws.readyState === WebSocket.OPEN && (state.currentFriend || state.currentGroupId)) {
+      state.ws.send(JSON.stringify({ type: "typing", data: typingTarget() }));
     }
   }, 2000);
+  const stopTyping = () => {
+    if (state.ws && state.ws.readyState === WebSocket.OPEN && (state.currentFriend || state.currentGroupId)) {
+      state.ws.send(JSON.stringify({ type: "typing", data: { ...typingTarget(), state: "stop" } }));
+    }
+  };
 
   els.msgInput.oninput = (e) => {
     // Auto-resize
     e.target.style.height = 'auto';
     e.target.style.height = e.target.scrollHeight + 'px';
     
-    handleTyping();
+    if (e.target.value) handleTyping(); else stopTyping();
   };
   
   $('sendBtn').onclick = sendMessage;
@@ -438,19 +445,28 @@ async function enterChat() {
 
 async function loadFriends() {
   try {
-    const friends = await api("/api/friends");
+    // Revalidated with If-None-Match by the browser; an unchanged sidebar comes back as a 304
+    const friends = await api("/api/friends/snapshot");
     els.friendList.innerHTML = "";
     friends.forEach(f => {
+      const last = f.lastMessage;
+      const time = last && last.createdAt
+        ? new Date(last.createdAt).toLocaleTimeString('zh-CN', {hour12: false, hour: '2-digit', minute:'2-digit'})
+        : "";
+      let preview = "点击开始聊天";
+      if (last) preview = last.preview != null ? last.preview : (last.contentType === "image" ? "[图片]" : "[文件]");
+      if (f.unread > 0) preview = `[${f.unread > 99 ? "99+" : f.unread}条] ${preview}`;
+      const name = f.remark || f.displayName;
       const div = document.createElement("div");
       div.className = "friend-item";
       div.innerHTML = `
-        <img src="${f.avatarUrl || `https://ui-avatars.com/api/?name=${f.displayName}&background=random`}" class="avatar">
+        <img src="${f.avatarUrl || `https://ui-avatars.com/api/?name=${f.displayName}&background=random`}" class="avatar${f.online ? "" : " offline"}">
         <div class="flex-1 min-w-0">
           <div class="flex justify-between items-baseline">
-            <div class="font-medium truncate">${f.remark || f.displayName}</div>
-            <div class="text-xs text-secondary hidden">12:30</div>
+            <div class="font-medium truncate">${escapeHtml(name)}</div>
+            <div class="text-xs text-secondary${time ? "" : " hidden"}">${time}</div>
           </div>
-          <div class="text-sm text-secondary truncate">点击开始聊天</div>
+          <div class="text-sm text-secondary truncate">${escapeHtml(preview)}</div>
         </div>
       `;
       div.onclick = () => selectFriend(f, div);
@@ -505,6 +521,7 @@ async function loadMessages() {
     els.messages.innerHTML = "";
     msgs.forEach(renderMessage);
     scrollToBottom();
+    if (msgs.length) sendRead(msgs[msgs.length - 1].id);
   } catch (e) { els.messages.innerHTML = "加载失败"; }
 }
 
@@ -627,6 +644,16 @@ function escapeHtml(unsafe) {
          .replace(/'/g, "&#039;");
 }
 
+// Read receipt watermark: everything in the open chat up to messageId has been seen
+function sendRead(messageId) {
+  if (!messageId || !state.ws || state.ws.readyState !== WebSocket.OPEN) return;
+  if (state.currentGroupId) {
+    state.ws.send(JSON.stringify({ type: "read", data: { groupId: state.currentGroupId, messageId: String(messageId) } }));
+  } else if (state.currentFriend) {
+    state.ws.send(JSON.stringify({ type: "read", data: { friendId: state.currentFriend, messageId: String(messageId) } }));
+  }
+}
+
 function scrollToBottom() { els.messages.scrollTop = els.messages.scrollHeight; }
 
 async function sendMessage() {
@@ -727,37 +754,12 @@ function showToast(message, type = 'info') {
 
 function connectWS() {
   const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
-  state.ws = new WebSocket(`${protocol}//${window.location.host}/ws?token=${state.token}`);
+  state.ws = new WebSocket(`${protocol}//${window.location.host}/ws?token=${state.token}&batch=1`);
   state.ws.onopen = () => { state.reconnectAttempts = 0; console.log("WS Connected"); };
   state.ws.onmessage = (e) => {
-    const msg = JSON.parse(e.data);
-    if (msg.type === 'ack') {
-      renderMessage(msg.data);
-    } else if (msg.type === 'message') {
-      const data = msg.data;
-      // Convert to string for safe comparison
-      const senderId = String(data.senderId);
-      const currentFriendId = String(state.currentFriend);
-      const currentGroupId = String(state.currentGroupId);
-      const myId = String(state.me.id);
-      
-      if (state.currentGroupId && String(data.groupId) === currentGroupId) {
-        renderMessage({ ...data, createdAt: new Date() });
-        scrollToBottom();
-        SoundManager.play();
-      } else if (state.currentFriend && (senderId === currentFriendId || (senderId === myId && !data.groupId))) {
-        renderMessage({ ...data, createdAt: new Date() });
-        scrollToBottom();
-        SoundManager.play();
-      }
-    } else if (msg.type === 'typing') {
-      if (state.currentFriend === msg.data.senderId) {
-        els.typingIndicator.classList.remove('hidden');
-        setTimeout(() => els.typingIndicator.classList.add('hidden'), 3000);
-      }
-    } else if (msg.type === 'online_count') {
-      if (els.onlineCount) els.onlineCount.textContent = msg.data.count;
-    }
+    const frame = JSON.parse(e.data);
+    // Bursts arrive coalesced as {type: "batch", data: [frame, ...]}
+    (frame.type === 'batch' ? frame.data : [frame]).forEach(handleWsMessage);
   };
   state.ws.onclose = () => {
     console.log("WS Closed");
@@ -765,6 +767,60 @@ function connectWS() {
   };
 }
 
+function handleWsMessage(msg) {
+  if (msg.type === 'ack') {
+    renderMessage(msg.data);
+  } else if (msg.type === 'message') {
+    const data = msg.data;
+    // Convert to string for safe comparison
+    const senderId = String(data.senderId);
+    const currentFriendId = String(state.currentFriend);
+    const currentGroupId = String(state.currentGroupId);
+    const myId = String(state.me.id);
+    
+    if (state.currentGroupId && String(data.groupId) === currentGroupId) {
+      renderMessage({ ...data, createdAt: new Date() });
+      scrollToBottom();
+      SoundManager.play();
+      els.typingIndicator.classList.add('hidden');
+      sendRead(data.id);
+    } else if (state.currentFriend && (senderId === currentFriendId || (senderId === myId && !data.groupId))) {
+      renderMessage({ ...data, createdAt: new Date() });
+      scrollToBottom();
+      SoundManager.play();
+      if (senderId === currentFriendId) {
+        els.typingIndicator.classList.add('hidden');
+        sendRead(data.id);
+      }
+    }
+  } else if (msg.type === 'typing') {
+    const d = msg.data;
+    const here = d.groupId
+      ? String(state.currentGroupId) === String(d.groupId) && String(d.from) !== String(state.me.id)
+      : String(state.currentFriend) === String(d.from);
+    if (here) {
+      clearTimeout(state.typingTimer);
+      if (d.state === 'stop') {
+        els.typingIndicator.classList.add('hidden');
+      } else {
+        els.typingIndicator.classList.remove('hidden');
+        // Starts are refreshed while typing continues; hide if the stop got lost
+        state.typingTimer = setTimeout(() => els.typingIndicator.classList.add('hidden'), 12000);
+      }
+    }
+  } else if (msg.type === 'offline_overflow') {
+    // Older offline messages were collapsed server-side; refetch the open chat's history
+    if (state.currentGroupId || state.currentFriend) loadMessages();
+  } else if (msg.type === 'online_count') {
+    if (els.onlineCount) els.onlineCount.textContent = msg.data.count;
+  } else if (msg.type === 'send_failed') {
+    showToast(msg.data.reason === 'not_friends' ? "对方不是你的好友，消息未发送" : "消息发送失败，请重试", "error");
+  } else if (msg.type === 'rate_limited') {
+    // Sent once per throttled period; messages sent meanwhile were dropped by the server
+    showToast(`发送过于频繁，请${Math.ceil(msg.data.retryAfterMs / 1000)}秒后再试`, "warning");
+  }
+}
+
 // Friend Requests
 async function loadIncomingRequests() {
   try {
@@ -0,0 +1,83 @@
+package com.example.jialechatweb.chat;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the automaton filter with the old per-word contains/replace loop.
+ * Not part of the test suite; run with:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.example.jialechatweb.chat.ContentFilterBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentFilterBenchmark {
+
+    @Param({"8", "1000", "20000"})
+    public int words;
+
+    private List<String> dictionary;
+    private SensitiveWordMatcher matcher;
+    private String[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        dictionary = new ArrayList<>(words);
+        for (int i = 0; i < words; i++) {
+            dictionary.add(randomCjk(random, 2 + random.nextInt(3)));
+        }
+        matcher = SensitiveWordMatcher.build(dictionary);
+        messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            StringBuilder sb = new StringBuilder(randomCjk(random, 40));
+            if (i % 4 == 0) {
+                sb.insert(random.nextInt(sb.length()), dictionary.get(random.nextInt(dictionary.size())));
+            }
+            messages[i] = sb.toString();
+        }
+    }
+
+    @Benchmark
+    public String automaton() {
+        return matcher.mask(messages[next++ & 63]);
+    }
+
+    @Benchmark
+    public String perWordReplace() {
+        String filtered = messages[next++ & 63];
+        for (String word : dictionary) {
+            if (filtered.contains(word)) {
+                filtered = filtered.replace(word, "*".repeat(word.length()));
+            }
+        }
+        return filtered;
+    }
+
+    private static String randomCjk(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // A narrow slice of the CJK block so words actually collide with message text
+            sb.append((char) (0x4E00 + random.nextInt(500)));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ContentFilterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.jialechatweb.chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentFilterServiceTest {
+
+    @Test
+    void filter_MasksEveryOccurrenceInOnePass() {
+        ContentFilterService service = new ContentFilterService("");
+
+        assertEquals("不要**，也不要**和**", service.filter("不要赌博，也不要赌博和毒品"));
+        assertTrue(service.containsSensitive("这是色情内容"));
+        assertFalse(service.containsSensitive("今天天气不错"));
+    }
+
+    @Test
+    void filter_CleanTextIsReturnedAsIs() {
+        ContentFilterService service = new ContentFilterService("");
+        String clean = "hello world";
+
+        assertSame(clean, service.filter(clean));
+        assertNull(service.filter(null));
+    }
+
+    @Test
+    void matcher_HandlesOverlappingAndNestedWords() {
+        SensitiveWordMatcher matcher = SensitiveWordMatcher.build(List.of("he", "she", "hers", "his"));
+
+        assertEquals("u*****", matcher.mask("ushers"));
+        assertEquals("***s", matcher.mask("hiss"));
+        assertEquals("a***b**", matcher.mask("ashebhe"));
+    }
+
+    @Test
+    void reloadIfChanged_PicksUpEditedWordFile(@TempDir Path dir) throws Exception {
+        Path words = dir.resolve("words.txt");
+        Files.write(words, List.of("# comment", "apple", ""), StandardCharsets.UTF_8);
+        ContentFilterService service = new ContentFilterService(words.toString());
+        assertEquals("I like *****", service.filter("I like apple"));
+        assertEquals(1, service.wordCount());
+
+        Files.write(words, List.of("banana"), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(words, FileTime.fromMillis(Files.getLastModifiedTime(words).toMillis() + 5000));
+        service.reloadIfChanged();
+
+        assertEquals("apple ******", service.filter("apple banana"));
+    }
+}
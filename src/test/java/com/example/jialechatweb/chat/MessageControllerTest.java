@@ -0,0 +1,88 @@
+package com.example.jialechatweb.chat;
+
+import com.example.jialechatweb.oss.SignedUrlCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageControllerTest {
+
+    @Mock
+    private MessageMapper messageMapper;
+
+    @Mock
+    private SignedUrlCache signedUrls;
+
+    @Mock
+    private MessageTailCache tailCache;
+
+    @Mock
+    private ReadReceiptService readReceiptService;
+
+    @Mock
+    private UnreadCounterService unreadCounterService;
+
+    @InjectMocks
+    private MessageController messageController;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private static List<ChatMessage> newestFirst(long from, int count) {
+        List<ChatMessage> list = new ArrayList<>();
+        for (long id = from; id > from - count; id--) {
+            ChatMessage m = new ChatMessage();
+            m.setId(id);
+            list.add(m);
+        }
+        return list;
+    }
+
+    @Test
+    void history_ReturnsOldestFirstWithCursorWhenMorePagesExist() {
+        long conversationId = ConversationIds.of(1L, 2L);
+        when(messageMapper.listConversationBefore(conversationId, 100L, 3)).thenReturn(newestFirst(99, 3));
+
+        ResponseEntity<?> response = messageController.history(2L, null, 100L, 2, 1L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        List<ChatMessage> items = (List<ChatMessage>) body.get("items");
+        assertEquals(2, items.size());
+        assertEquals(98L, items.get(0).getId());
+        assertEquals(99L, items.get(1).getId());
+        assertEquals("98", body.get("nextCursor"));
+        assertEquals(true, body.get("hasMore"));
+    }
+
+    @Test
+    void history_LastPageHasNoCursor() {
+        when(tailCache.groupHead(1L, 51)).thenReturn(newestFirst(5, 5));
+
+        ResponseEntity<?> response = messageController.history(null, 1L, null, 50, 1L);
+
+        Map<String, Object> body = (Map<String, Object>) response.getBody();
+        assertEquals(5, ((List<?>) body.get("items")).size());
+        assertNull(body.get("nextCursor"));
+        assertEquals(false, body.get("hasMore"));
+    }
+
+    @Test
+    void conversationIds_AreSymmetric() {
+        assertEquals(ConversationIds.of(7L, 42L), ConversationIds.of(42L, 7L));
+    }
+}
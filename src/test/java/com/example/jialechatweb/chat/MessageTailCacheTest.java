@@ -0,0 +1,91 @@
+package com.example.jialechatweb.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageTailCacheTest {
+
+    private static ChatMessage groupMessage(long id) {
+        ChatMessage m = new ChatMessage();
+        m.setId(id);
+        m.setGroupId(9L);
+        return m;
+    }
+
+    @Test
+    void groupHead_SeedsOnceThenServesAppendedMessagesFromMemory() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.listGroupBefore(9L, null, 4)).thenReturn(new ArrayList<>(List.of(groupMessage(2), groupMessage(1))));
+        MessageTailCache cache = new MessageTailCache(mapper, 4, 10, 0);
+
+        assertEquals(2, cache.groupHead(9L, 3).size());
+        cache.append(groupMessage(3));
+        List<ChatMessage> head = cache.groupHead(9L, 3);
+
+        assertEquals(List.of(3L, 2L, 1L), head.stream().map(ChatMessage::getId).toList());
+        verify(mapper, times(1)).listGroupBefore(anyLong(), any(), anyInt());
+        assertEquals(1L, cache.stats().get("hits"));
+    }
+
+    @Test
+    void groupHead_ReturnsCopiesAndEvictsLeastRecentlyUsed() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.listGroupBefore(anyLong(), isNull(), anyInt())).thenAnswer(inv -> new ArrayList<>(List.of(groupMessage(1))));
+        MessageTailCache cache = new MessageTailCache(mapper, 4, 1, 0);
+
+        cache.groupHead(9L, 2).get(0).setSenderAvatar("signed-url");
+        assertNull(cache.groupHead(9L, 2).get(0).getSenderAvatar());
+
+        cache.groupHead(10L, 2);
+        assertEquals(1, cache.stats().get("conversations"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    void latestOfConversations_AnswersSeededTailsFromMemoryAndQueriesTheRestOnce() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        ChatMessage seeded = new ChatMessage();
+        seeded.setId(5L);
+        seeded.setConversationId(7L);
+        when(mapper.listConversationBefore(7L, null, 4)).thenReturn(new ArrayList<>(List.of(seeded)));
+        ChatMessage queried = new ChatMessage();
+        queried.setId(9L);
+        queried.setConversationId(8L);
+        when(mapper.latestOfConversations(List.of(8L, 6L))).thenReturn(List.of(queried));
+        MessageTailCache cache = new MessageTailCache(mapper, 4, 10, 0);
+        cache.conversationHead(7L, 1);
+
+        Map<Long, ChatMessage> latest = cache.latestOfConversations(List.of(7L, 8L, 6L));
+
+        assertEquals(5L, latest.get(7L).getId());
+        assertEquals(9L, latest.get(8L).getId());
+        assertFalse(latest.containsKey(6L));
+        verify(mapper, times(1)).latestOfConversations(any());
+    }
+
+    @Test
+    void conversationHead_ReseedsATailOlderThanTheTtl() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        ChatMessage m = new ChatMessage();
+        m.setId(1L);
+        m.setConversationId(7L);
+        when(mapper.listConversationBefore(7L, null, 4)).thenAnswer(inv -> new ArrayList<>(List.of(m)));
+        MessageTailCache cache = new MessageTailCache(mapper, 4, 10, 1);
+
+        cache.conversationHead(7L, 1);
+        cache.conversationHead(7L, 1);
+        verify(mapper, times(1)).listConversationBefore(7L, null, 4);
+
+        Thread.sleep(1_100);
+        cache.conversationHead(7L, 1);
+        verify(mapper, times(2)).listConversationBefore(7L, null, 4);
+        assertTrue(cache.tracks(null, 7L));
+    }
+}
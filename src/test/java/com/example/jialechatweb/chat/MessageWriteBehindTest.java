@@ -0,0 +1,98 @@
+package com.example.jialechatweb.chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageWriteBehindTest {
+
+    private MessageWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    private static ChatMessage message(long id) {
+        ChatMessage m = new ChatMessage();
+        m.setId(id);
+        return m;
+    }
+
+    private static ChatMessage message(long id, long conversationId) {
+        ChatMessage m = message(id);
+        m.setConversationId(conversationId);
+        return m;
+    }
+
+    @Test
+    void submit_GroupsMessagesIntoOneBatchInsert() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        writeBehind = new MessageWriteBehind(mapper, 100, 10, 200, 50, "flush", 2);
+        writeBehind.start();
+
+        CompletableFuture<Void> first = writeBehind.submit(message(1));
+        CompletableFuture<Void> second = writeBehind.submit(message(2));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        verify(mapper, times(1)).insertBatch(argThat(rows -> rows.size() == 2));
+        verify(mapper, never()).insert(any());
+        assertTrue(writeBehind.acksAfterFlush());
+    }
+
+    @Test
+    void submit_FailedBatchFallsBackToSingleRowsAndFailsOnlyTheBadRow() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.insertBatch(anyList())).thenThrow(new RuntimeException("duplicate key"));
+        when(mapper.insert(argThat(m -> m != null && m.getId() == 2L))).thenThrow(new RuntimeException("duplicate key"));
+        writeBehind = new MessageWriteBehind(mapper, 100, 2, 200, 50, "enqueue", 2);
+        writeBehind.start();
+
+        CompletableFuture<Void> ok = writeBehind.submit(message(1));
+        CompletableFuture<Void> bad = writeBehind.submit(message(2));
+
+        ok.get(5, TimeUnit.SECONDS);
+        assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        verify(mapper, times(2)).insert(any());
+        assertFalse(writeBehind.acksAfterFlush());
+    }
+
+    @Test
+    void submit_SlowCallbackOfOneConversationDoesNotHoldUpAnother() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        writeBehind = new MessageWriteBehind(mapper, 100, 10, 200, 50, "flush", 2);
+        writeBehind.start();
+        ChatMessage slow = message(1, 1L);
+        long other = 2L;
+        while (writeBehind.lane(message(0, other)) == writeBehind.lane(slow)) {
+            other++;
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> blocked = writeBehind.submit(slow).thenRun(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            writeBehind.submit(message(2, other)).get(5, TimeUnit.SECONDS);
+            assertFalse(blocked.isDone());
+        } finally {
+            release.countDown();
+        }
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+}
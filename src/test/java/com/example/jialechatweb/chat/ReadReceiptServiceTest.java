@@ -0,0 +1,88 @@
+package com.example.jialechatweb.chat;
+
+import com.example.jialechatweb.ws.ChatWebSocketHandler;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReadReceiptServiceTest {
+
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<ChatWebSocketHandler> handlerProvider = mock(ObjectProvider.class);
+
+    // Every conversation's newest message is id 100
+    private static MessageTailCache tailCache() {
+        MessageTailCache tailCache = mock(MessageTailCache.class);
+        when(tailCache.latestOfConversations(anyCollection())).thenAnswer(inv -> {
+            Map<Long, ChatMessage> res = new HashMap<>();
+            for (Object id : (Collection<?>) inv.getArgument(0)) {
+                ChatMessage m = new ChatMessage();
+                m.setId(100L);
+                res.put((Long) id, m);
+            }
+            return res;
+        });
+        return tailCache;
+    }
+
+    @Test
+    void flush_CoalescesReportsIntoOneWatermarkPerConversation() {
+        ReadWatermarkMapper mapper = mock(ReadWatermarkMapper.class);
+        ReadReceiptService service = new ReadReceiptService(mapper, tailCache(), handlerProvider, mock(UnreadCounterService.class), 500);
+
+        service.markRead(1L, 2L, 10L);
+        service.markRead(1L, 2L, 30L);
+        service.markRead(1L, 2L, 20L);
+        service.markRead(3L, 2L, 5L);
+        service.flush();
+        service.flush();
+
+        verify(mapper, times(1)).upsertBatch(argThat(batch -> batch.size() == 2
+                && batch.stream().anyMatch(w -> w.getUserId() == 1L && w.getLastReadId() == 30L)));
+    }
+
+    @Test
+    void flush_FailedWriteIsRetriedAndStillVisible() {
+        ReadWatermarkMapper mapper = mock(ReadWatermarkMapper.class);
+        when(mapper.upsertBatch(anyList())).thenThrow(new RuntimeException("db down")).thenReturn(1);
+        ReadReceiptService service = new ReadReceiptService(mapper, tailCache(), handlerProvider, mock(UnreadCounterService.class), 500);
+
+        service.markRead(1L, 2L, 10L);
+        service.flush();
+        assertEquals(10L, service.lastReadId(1L, 2L));
+
+        service.flush();
+        verify(mapper, times(2)).upsertBatch(anyList());
+    }
+
+    @Test
+    void markRead_CapsTheWatermarkAtTheNewestMessage() {
+        ReadWatermarkMapper mapper = mock(ReadWatermarkMapper.class);
+        ReadReceiptService service = new ReadReceiptService(mapper, tailCache(), handlerProvider, mock(UnreadCounterService.class), 500);
+
+        service.markRead(1L, 2L, Long.MAX_VALUE);
+
+        assertEquals(100L, service.lastReadId(1L, 2L));
+    }
+
+    @Test
+    void markRead_RecountsInsteadOfClearingForAnOlderMessage() {
+        ReadWatermarkMapper mapper = mock(ReadWatermarkMapper.class);
+        UnreadCounterService unread = mock(UnreadCounterService.class);
+        ReadReceiptService service = new ReadReceiptService(mapper, tailCache(), handlerProvider, unread, 500);
+
+        service.markRead(1L, 2L, 50L);
+        verify(unread).recountPeer(1L, 2L, 50L);
+        verify(unread, never()).markPeerRead(anyLong(), anyLong());
+
+        service.markRead(1L, 2L, 100L);
+        verify(unread).markPeerRead(1L, 2L);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.jialechatweb.chat;
+
+import com.example.jialechatweb.group.GroupMembershipIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UnreadCounterServiceTest {
+
+    private UnreadCounterService localService(MessageMapper mapper) {
+        return localService(mapper, mock(GroupMembershipIndex.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private UnreadCounterService localService(MessageMapper mapper, GroupMembershipIndex groups) {
+        ObjectProvider<RedisUnreadCounters> provider = mock(ObjectProvider.class);
+        return new UnreadCounterService(provider, mapper, groups);
+    }
+
+    private static ChatMessage message(long senderId, Long receiverId, Long groupId) {
+        ChatMessage m = new ChatMessage();
+        m.setSenderId(senderId);
+        m.setReceiverId(receiverId);
+        m.setGroupId(groupId);
+        return m;
+    }
+
+    @Test
+    void badges_CountsPeerMessagesAndGroupSequenceSinceLastRead() {
+        UnreadCounterService service = localService(mock(MessageMapper.class));
+        service.markGroupRead(1L, 7L);
+
+        service.onMessage(message(2L, 1L, null));
+        service.onMessage(message(2L, 1L, null));
+        service.onMessage(message(3L, null, 7L));
+
+        Map<String, Object> badges = service.badges(1L);
+        assertEquals(Map.of("2", 2L), badges.get("friends"));
+        assertEquals(Map.of("7", 1L), badges.get("groups"));
+        assertEquals(3L, badges.get("total"));
+
+        service.markPeerRead(1L, 2L);
+        service.markGroupRead(1L, 7L);
+        assertEquals(0L, service.badges(1L).get("total"));
+    }
+
+    @Test
+    void recountPeer_KeepsMessagesNewerThanTheWatermark() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.countFromPeerAfter(ConversationIds.of(1L, 2L), 2L, 50L)).thenReturn(1L);
+        UnreadCounterService service = localService(mapper);
+        service.onMessage(message(2L, 1L, null));
+        service.onMessage(message(2L, 1L, null));
+
+        service.recountPeer(1L, 2L, 50L);
+
+        assertEquals(Map.of("2", 1L), service.badges(1L).get("friends"));
+    }
+
+    @Test
+    void rebuild_ReplacesDriftedPeerCountsWithMySqlCounts() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        UnreadCount row = new UnreadCount();
+        row.setPeerId(5L);
+        row.setUnread(4L);
+        when(mapper.countUnreadBySender(1L)).thenReturn(List.of(row));
+        UnreadCounterService service = localService(mapper);
+        service.onMessage(message(9L, 1L, null));
+
+        Map<String, Object> badges = service.rebuild(1L);
+
+        assertEquals(Map.of("5", 4L), badges.get("friends"));
+    }
+
+    @Test
+    void badges_SeedsGroupsJoinedBeforeCountersExistedOnFirstRead() {
+        GroupMembershipIndex groups = mock(GroupMembershipIndex.class);
+        when(groups.groupsOf(1L)).thenReturn(Set.of(7L));
+        UnreadCounterService service = localService(mock(MessageMapper.class), groups);
+        service.onMessage(message(3L, null, 7L));
+
+        // No seen sequence yet: seeded at the current one, so nothing is unread
+        assertEquals(Map.of(), service.badges(1L).get("groups"));
+
+        service.onMessage(message(3L, null, 7L));
+        assertEquals(Map.of("7", 1L), service.badges(1L).get("groups"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.jialechatweb.friend;
+
+import com.example.jialechatweb.user.UserProfileCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FriendGraphCacheTest {
+
+    private static FriendDTO row(long id, long userId, long friendId, String status, String username) {
+        FriendDTO r = new FriendDTO();
+        r.setId(id);
+        r.setUserId(userId);
+        r.setFriendId(friendId);
+        r.setStatus(status);
+        r.setRemark("r" + id);
+        r.setCreatedAt(Instant.EPOCH);
+        r.setUsername(username);
+        r.setDisplayName(username);
+        return r;
+    }
+
+    private static Friend friend(long userId, long friendId, String status) {
+        Friend f = new Friend();
+        f.setId(100L);
+        f.setUserId(userId);
+        f.setFriendId(friendId);
+        f.setStatus(status);
+        return f;
+    }
+
+    @Test
+    void loadsOnceAndAnswersRelationsFromMemory() {
+        FriendMapper mapper = mock(FriendMapper.class);
+        when(mapper.listEdges(1L)).thenReturn(new ArrayList<>(List.of(
+                row(1, 1, 30, "ACCEPTED", "u30"),
+                row(2, 1, 20, "ACCEPTED", "u20"),
+                row(3, 1, 40, "PENDING", "u40"),
+                row(4, 50, 1, "PENDING", "u50"))));
+        UserProfileCache profiles = mock(UserProfileCache.class);
+        when(profiles.get(anyLong())).thenAnswer(inv -> {
+            long id = inv.getArgument(0);
+            return new UserProfileCache.Profile(id, "u" + id, "u" + id, null);
+        });
+        FriendGraphCache graph = new FriendGraphCache(mapper, profiles, 300, 0, 100);
+
+        assertTrue(graph.areFriends(1L, 20L));
+        assertEquals(2, graph.friendCount(1L));
+        assertEquals(FriendGraphCache.Relation.REQUESTED, graph.relation(1L, 40L));
+        assertEquals(FriendGraphCache.Relation.REQUESTED_BY, graph.relation(1L, 50L));
+        assertEquals(FriendGraphCache.Relation.NONE, graph.relation(1L, 60L));
+        List<FriendDTO> list = graph.list(1L);
+        assertEquals(List.of(20L, 30L), list.stream().map(FriendDTO::getFriendId).toList());
+        assertEquals("r2", list.get(0).getRemark());
+
+        verify(mapper, times(1)).listEdges(1L);
+        verify(profiles, times(4)).prime(any());
+    }
+
+    @Test
+    void changesPatchBothCachedViews() {
+        FriendMapper mapper = mock(FriendMapper.class);
+        when(mapper.listEdges(anyLong())).thenAnswer(inv -> new ArrayList<FriendDTO>());
+        FriendGraphCache graph = new FriendGraphCache(mapper, mock(UserProfileCache.class), 300, 0, 100);
+        graph.relation(1L, 2L);
+        graph.relation(2L, 1L);
+
+        graph.rowChanged(friend(1L, 2L, "PENDING"));
+        assertEquals(FriendGraphCache.Relation.REQUESTED, graph.relation(1L, 2L));
+        assertEquals(FriendGraphCache.Relation.REQUESTED_BY, graph.relation(2L, 1L));
+
+        graph.rowChanged(friend(1L, 2L, "ACCEPTED"));
+        graph.rowChanged(friend(2L, 1L, "ACCEPTED"));
+        assertTrue(graph.areFriends(1L, 2L));
+        assertTrue(graph.canMessage(2L, 1L));
+        assertEquals(1, graph.friendCount(2L));
+
+        graph.rowDeleted(1L, 2L);
+        graph.rowDeleted(2L, 1L);
+        assertEquals(FriendGraphCache.Relation.NONE, graph.relation(2L, 1L));
+        assertEquals(0, graph.friendCount(1L));
+        verify(mapper, times(1)).listEdges(1L);
+        verify(mapper, times(1)).listEdges(2L);
+    }
+
+    @Test
+    void canMessage_RereadsBeforeRefusing() {
+        FriendMapper mapper = mock(FriendMapper.class);
+        when(mapper.listEdges(1L))
+                .thenReturn(new ArrayList<>())
+                .thenReturn(new ArrayList<>(List.of(row(9, 1, 2, "ACCEPTED", "u2"))));
+        FriendGraphCache graph = new FriendGraphCache(mapper, mock(UserProfileCache.class), 300, 0, 100);
+
+        assertFalse(graph.areFriends(1L, 2L));
+        // Accepted on another node: the stale view is refreshed instead of refusing
+        assertTrue(graph.canMessage(1L, 2L));
+        assertTrue(graph.areFriends(1L, 2L));
+    }
+
+    @Test
+    void canMessage_TrustsARecentlyLoadedViewWhenRefusing() {
+        FriendMapper mapper = mock(FriendMapper.class);
+        when(mapper.listEdges(anyLong())).thenAnswer(inv -> new ArrayList<FriendDTO>());
+        FriendGraphCache graph = new FriendGraphCache(mapper, mock(UserProfileCache.class), 300, 60_000, 100);
+
+        for (long stranger = 2; stranger < 50; stranger++) {
+            assertFalse(graph.canMessage(1L, stranger));
+        }
+        verify(mapper, times(1)).listEdges(1L);
+    }
+
+    @Test
+    void load_StaysBoundedAndKeepsCachingWhenFull() {
+        FriendMapper mapper = mock(FriendMapper.class);
+        when(mapper.listEdges(anyLong())).thenAnswer(inv -> new ArrayList<FriendDTO>());
+        FriendGraphCache graph = new FriendGraphCache(mapper, mock(UserProfileCache.class), 300, 0, 8);
+
+        for (long user = 1; user <= 100; user++) {
+            graph.friendCount(user);
+            assertTrue((int) graph.stats().get("users") <= 8);
+        }
+        graph.friendCount(100L);
+        verify(mapper, times(1)).listEdges(100L);
+    }
+}
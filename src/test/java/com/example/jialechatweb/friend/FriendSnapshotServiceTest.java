@@ -0,0 +1,106 @@
+package com.example.jialechatweb.friend;
+
+import com.example.jialechatweb.chat.ChatMessage;
+import com.example.jialechatweb.chat.ConversationIds;
+import com.example.jialechatweb.chat.MessageTailCache;
+import com.example.jialechatweb.chat.UnreadCounterService;
+import com.example.jialechatweb.oss.SignedUrlCache;
+import com.example.jialechatweb.ws.PresenceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FriendSnapshotServiceTest {
+    private FriendGraphCache friendGraph;
+    private MessageTailCache tailCache;
+    private UnreadCounterService unread;
+    private PresenceService presence;
+    private FriendSnapshotService service;
+
+    private static FriendDTO friend(long friendId, String avatarKey) {
+        FriendDTO f = new FriendDTO();
+        f.setUserId(1L);
+        f.setFriendId(friendId);
+        f.setUsername("u" + friendId);
+        f.setDisplayName("User " + friendId);
+        f.setAvatarUrl(avatarKey);
+        return f;
+    }
+
+    private static ChatMessage message(long id, long friendId, String contentType, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setId(id);
+        m.setConversationId(ConversationIds.of(1L, friendId));
+        m.setSenderId(friendId);
+        m.setContentType(contentType);
+        m.setContent(content);
+        return m;
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        friendGraph = mock(FriendGraphCache.class);
+        when(friendGraph.list(1L)).thenAnswer(inv -> new ArrayList<>(List.of(friend(20, "a/20.png"), friend(30, null))));
+        SignedUrlCache signedUrls = mock(SignedUrlCache.class);
+        when(signedUrls.sign(any())).thenAnswer(inv -> inv.getArgument(0) == null ? null : "https://oss/" + inv.getArgument(0));
+        tailCache = mock(MessageTailCache.class);
+        when(tailCache.latestOfConversations(any())).thenReturn(Map.of(
+                ConversationIds.of(1L, 20L), message(99, 20, "text", "abcdef"),
+                ConversationIds.of(1L, 30L), message(98, 30, "image", "img/key.png")));
+        unread = mock(UnreadCounterService.class);
+        when(unread.peerCounts(1L)).thenReturn(Map.of(20L, 3L));
+        presence = mock(PresenceService.class);
+        when(presence.online(List.of(20L, 30L))).thenReturn(List.of(30L));
+        ObjectProvider<PresenceService> presenceProvider = mock(ObjectProvider.class);
+        when(presenceProvider.getIfAvailable()).thenReturn(presence);
+        service = new FriendSnapshotService(friendGraph, signedUrls, tailCache, unread, presenceProvider, 4);
+    }
+
+    @Test
+    void assemblesEveryFriendFromBulkLookups() {
+        List<FriendSnapshotService.Entry> friends = service.snapshot(1L).friends();
+
+        assertEquals(2, friends.size());
+        FriendSnapshotService.Entry first = friends.get(0);
+        assertEquals("20", first.friendId());
+        assertEquals("https://oss/a/20.png", first.avatarUrl());
+        assertFalse(first.online());
+        assertEquals(3L, first.unread());
+        assertEquals("abcd…", first.lastMessage().preview());
+        FriendSnapshotService.Entry second = friends.get(1);
+        assertTrue(second.online());
+        assertEquals(0L, second.unread());
+        assertNull(second.lastMessage().preview());
+        verify(tailCache, times(1)).latestOfConversations(any());
+        verify(presence, times(1)).online(any());
+    }
+
+    @Test
+    void etagIsStableUntilSomethingVisibleChanges() {
+        String etag = service.snapshot(1L).etag();
+        assertEquals(etag, service.snapshot(1L).etag());
+
+        when(unread.peerCounts(1L)).thenReturn(Map.of(20L, 4L));
+        assertNotEquals(etag, service.snapshot(1L).etag());
+    }
+
+    @Test
+    void redisFailuresDegradeToOfflineWithoutBadges() {
+        when(presence.online(any())).thenThrow(new IllegalStateException("redis down"));
+        when(unread.peerCounts(1L)).thenThrow(new IllegalStateException("redis down"));
+
+        List<FriendSnapshotService.Entry> friends = service.snapshot(1L).friends();
+
+        assertTrue(friends.stream().noneMatch(FriendSnapshotService.Entry::online));
+        assertTrue(friends.stream().allMatch(f -> f.unread() == 0));
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.jialechatweb.group;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class GroupMembershipIndexTest {
+
+    @Test
+    void groupsOf_LoadsOnceAndFollowsMembershipChanges() {
+        GroupMapper mapper = mock(GroupMapper.class);
+        when(mapper.getGroupIdsOfUser(7L)).thenReturn(List.of(1L, 2L));
+        GroupMembershipIndex index = new GroupMembershipIndex(mapper);
+
+        assertEquals(Set.of(1L, 2L), index.groupsOf(7L));
+        index.addMember(3L, 7L);
+        index.removeMember(1L, 7L);
+        index.putGroup(4L, List.of(7L, 8L));
+
+        assertEquals(Set.of(2L, 3L, 4L), index.groupsOf(7L));
+        verify(mapper, times(1)).getGroupIdsOfUser(7L);
+    }
+
+    @Test
+    void groupsOf_ForgetsAUserWhoseLastGroupIsGone() {
+        GroupMapper mapper = mock(GroupMapper.class);
+        when(mapper.getGroupIdsOfUser(7L)).thenReturn(List.of(1L), List.of());
+        GroupMembershipIndex index = new GroupMembershipIndex(mapper);
+
+        assertEquals(Set.of(1L), index.groupsOf(7L));
+        index.removeMember(1L, 7L);
+
+        assertEquals(Set.of(), index.groupsOf(7L));
+        verify(mapper, times(2)).getGroupIdsOfUser(7L);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.jialechatweb.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalRateLimitStoreTest {
+
+    @Test
+    void acquire_AllowsBurstThenRefillsEvenly() {
+        AtomicLong now = new AtomicLong(1);
+        LocalRateLimitStore store = new LocalRateLimitStore(now::get);
+        RateLimit fivePerMinute = RateLimit.of("t", 5, Duration.ofMinutes(1), 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, store.acquire(fivePerMinute, 7, 0));
+        }
+        assertEquals(12_000, store.acquire(fivePerMinute, 7, 0));
+        // Other keys are independent
+        assertEquals(0, store.acquire(fivePerMinute, 8, 0));
+
+        now.addAndGet(12_000);
+        assertEquals(0, store.acquire(fivePerMinute, 7, 0));
+        assertTrue(store.acquire(fivePerMinute, 7, 0) > 0);
+    }
+
+    @Test
+    void minInterval_IsPerPair() {
+        AtomicLong now = new AtomicLong(1);
+        LocalRateLimitStore store = new LocalRateLimitStore(now::get);
+        RateLimit interval = RateLimit.minInterval("pair", Duration.ofSeconds(30));
+
+        assertEquals(0, store.acquire(interval, 1, 2));
+        assertEquals(30_000, store.acquire(interval, 1, 2));
+        assertEquals(0, store.acquire(interval, 1, 3));
+        assertEquals(0, store.acquire(interval, 2, 1));
+
+        now.addAndGet(29_999);
+        assertEquals(1, store.acquire(interval, 1, 2));
+        now.addAndGet(1);
+        assertEquals(0, store.acquire(interval, 1, 2));
+    }
+
+    @Test
+    void evictExpired_DropsRecoveredKeysAndKeepsLimitsOfTheRest() {
+        AtomicLong now = new AtomicLong(1);
+        LocalRateLimitStore store = new LocalRateLimitStore(now::get);
+        RateLimit interval = RateLimit.minInterval("pair", Duration.ofSeconds(30));
+        for (long user = 0; user < 10_000; user++) {
+            assertEquals(0, store.acquire(interval, user, 42));
+        }
+        assertEquals(10_000, store.size());
+
+        now.addAndGet(20_000);
+        assertEquals(0, store.acquire(interval, -1, 42));
+        now.addAndGet(10_000);
+
+        assertEquals(1, store.evictExpired());
+        assertTrue(store.acquire(interval, -1, 42) > 0);
+        assertEquals(0, store.acquire(interval, 5, 42));
+    }
+}
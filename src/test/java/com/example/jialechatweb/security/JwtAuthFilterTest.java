@@ -0,0 +1,43 @@
+package com.example.jialechatweb.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtAuthFilterTest {
+    private static final String SECRET = "12345678901234567890123456789012_test_secret_key";
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void doFilter_GrantsAdminOnlyToConfiguredUsernames() throws Exception {
+        JwtService jwt = new JwtService(SECRET, 60, "TestIssuer", 100);
+        JwtAuthFilter filter = new JwtAuthFilter(jwt, " ops , admin ");
+
+        assertEquals(List.of("ROLE_ADMIN"), authoritiesAfterFilter(filter, jwt.createToken("1", Map.of("username", "ops"))));
+        assertEquals(List.of(), authoritiesAfterFilter(filter, jwt.createToken("2", Map.of("username", "alice"))));
+    }
+
+    private static List<String> authoritiesAfterFilter(JwtAuthFilter filter, String token) throws Exception {
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        assertNotNull(auth);
+        return auth.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.jialechatweb.security;
+
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtServiceTest {
+    private static final String SECRET = "12345678901234567890123456789012_test_secret_key";
+
+    @Test
+    void verify_CachesValidTokensOnly() {
+        JwtService jwt = new JwtService(SECRET, 60, "TestIssuer", 100);
+        String token = jwt.createToken("42", Map.of("username", "alice"));
+
+        JwtService.VerifiedToken first = jwt.verify(token);
+        JwtService.VerifiedToken second = jwt.verify(token);
+
+        assertEquals(42L, first.userId());
+        assertEquals("alice", first.username());
+        assertTrue(first.expiresAtMillis() > System.currentTimeMillis());
+        assertSame(first, second);
+        assertEquals(1L, jwt.cacheStats().get("hits"));
+
+        // A forged signature is rejected and not remembered
+        String forged = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+        assertThrows(JwtException.class, () -> jwt.verify(forged));
+        assertThrows(JwtException.class, () -> jwt.verify(forged));
+        assertEquals(1, jwt.cacheStats().get("entries"));
+    }
+
+    @Test
+    void verify_RejectsTokensSignedWithAnotherKey() {
+        JwtService other = new JwtService(SECRET.replace('1', '9'), 60, "TestIssuer", 100);
+        JwtService jwt = new JwtService(SECRET, 60, "TestIssuer", 0);
+
+        assertThrows(JwtException.class, () -> jwt.verify(other.createToken("42", Map.of("username", "alice"))));
+        assertEquals(0, jwt.cacheStats().get("entries"));
+    }
+
+    @Test
+    void verify_StaysBoundedAndKeepsCachingWhenFull() {
+        JwtService jwt = new JwtService(SECRET, 60, "TestIssuer", 8);
+        String last = null;
+        for (int i = 0; i < 100; i++) {
+            last = jwt.createToken(String.valueOf(i), Map.of("username", "u" + i));
+            jwt.verify(last);
+            assertTrue((int) jwt.cacheStats().get("entries") <= 8);
+        }
+
+        // None of them has expired, yet the newest token still gets a slot
+        jwt.verify(last);
+        assertEquals(1L, jwt.cacheStats().get("hits"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.jialechatweb.user;
+
+import com.example.jialechatweb.oss.OssService;
+import com.example.jialechatweb.oss.SignedUrlCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class UserProfileCacheTest {
+
+    private static User user(long id, String name, String avatar) {
+        User u = new User();
+        u.setId(id);
+        u.setDisplayName(name);
+        u.setAvatarUrl(avatar);
+        return u;
+    }
+
+    @Test
+    void get_LoadsOnceAndReloadsAfterEvict() {
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.findById(5L))
+                .thenReturn(Optional.of(user(5L, "Old", "avatar/a.png")))
+                .thenReturn(Optional.of(user(5L, "New", "avatar/a.png")));
+        UserProfileCache cache = new UserProfileCache(userMapper, mock(SignedUrlCache.class), 300, 100);
+
+        assertEquals("Old", cache.get(5L).displayName());
+        assertEquals("Old", cache.get(5L).displayName());
+        cache.evict(5L);
+        assertEquals("New", cache.get(5L).displayName());
+
+        verify(userMapper, times(2)).findById(5L);
+        assertNull(cache.get(6L));
+    }
+
+    @Test
+    void signedUrl_ReusedUntilRefreshMargin() {
+        OssService ossService = mock(OssService.class);
+        when(ossService.generateSignedUrl("avatar/a.png")).thenReturn("https://oss/a?sig=1", "https://oss/a?sig=2");
+
+        SignedUrlCache reusing = new SignedUrlCache(ossService, 604800, 3600, 100);
+        assertEquals("https://oss/a?sig=1", reusing.sign("avatar/a.png"));
+        assertEquals("https://oss/a?sig=1", reusing.sign("avatar/a.png"));
+        assertNull(reusing.sign(null));
+        assertEquals("https://cdn/x.png", reusing.sign("https://cdn/x.png"));
+        verify(ossService, times(1)).generateSignedUrl("avatar/a.png");
+
+        // A margin as long as the URL's lifetime means every call signs afresh
+        SignedUrlCache noReuse = new SignedUrlCache(ossService, 3600, 3600, 100);
+        assertEquals("https://oss/a?sig=2", noReuse.sign("avatar/a.png"));
+        verify(ossService, times(2)).generateSignedUrl("avatar/a.png");
+    }
+
+    @Test
+    void get_StaysBoundedAndKeepsCachingWhenFull() {
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.findById(anyLong())).thenAnswer(inv -> Optional.of(user(inv.getArgument(0), "u", null)));
+        UserProfileCache cache = new UserProfileCache(userMapper, mock(SignedUrlCache.class), 300, 8);
+
+        for (long id = 1; id <= 100; id++) {
+            cache.get(id);
+            assertTrue((int) cache.stats().get("entries") <= 8);
+        }
+
+        // Nothing has expired, yet the newest user still got a slot
+        cache.get(100L);
+        verify(userMapper, times(1)).findById(100L);
+    }
+}
@@ -25,6 +25,9 @@ class UserServiceUnitTest {
     @Mock
     private PasswordEncoder passwordEncoder;
 
+    @Mock
+    private UserProfileCache profileCache;
+
     @InjectMocks
     private UserService userService;
 
@@ -136,4 +139,13 @@ class UserServiceUnitTest {
             assertTrue(accounts.add(u.getUsername()), "Should generate unique accounts in small batch");
         }
     }
+
+    @Test
+    void profileUpdates_EvictCachedProfile() {
+        userService.updateDisplayName(7L, "New");
+        userService.updateAvatar(7L, "avatar/2026/10/user_7_avatar.png");
+
+        verify(userMapper).updateDisplayName(7L, "New");
+        verify(profileCache, times(2)).evict(7L);
+    }
 }
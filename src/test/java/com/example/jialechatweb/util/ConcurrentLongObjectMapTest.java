@@ -0,0 +1,75 @@
+package com.example.jialechatweb.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentLongObjectMapTest {
+
+    @Test
+    void randomOperations_MatchHashMap() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5_000) - 2_500L;
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Long, String> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void compute_AddsUpdatesAndRemoves() {
+        ConcurrentLongObjectMap<Integer> map = new ConcurrentLongObjectMap<>();
+        assertEquals(1, map.compute(Long.MAX_VALUE, (k, v) -> v == null ? 1 : v + 1));
+        assertEquals(2, map.compute(Long.MAX_VALUE, (k, v) -> v == null ? 1 : v + 1));
+        assertNull(map.compute(Long.MAX_VALUE, (k, v) -> null));
+        assertFalse(map.containsKey(Long.MAX_VALUE));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void forEachSnapshot_AllowsWritesFromTheAction() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(4);
+        for (long k = 0; k < 1_000; k++) {
+            map.put(k, "v" + k);
+        }
+        Map<Long, String> seen = new HashMap<>();
+        // Removing under forEach would self-deadlock on the segment lock
+        map.forEachSnapshot((k, v) -> {
+            seen.put(k, v);
+            map.compute(k, (key, cur) -> null);
+        });
+        assertEquals(1_000, seen.size());
+        assertEquals("v7", seen.get(7L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void forEachSnapshot_NestedWalksOnOneThreadSeeTheirOwnCopies() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(4);
+        for (long k = 0; k < 100; k++) {
+            map.put(k, "v" + k);
+        }
+        long[] outer = new long[1];
+        long[] inner = new long[1];
+        map.forEachSnapshot((k, v) -> {
+            assertEquals("v" + k, v);
+            outer[0]++;
+            map.forEachSnapshot((k2, v2) -> inner[0]++);
+        });
+        assertEquals(100, outer[0]);
+        assertEquals(100 * 100, inner[0]);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.jialechatweb.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OfflineDrainerTest {
+
+    private OfflineDrainer drainer;
+
+    @AfterEach
+    void tearDown() {
+        if (drainer != null) {
+            drainer.shutdown();
+        }
+    }
+
+    private final SessionRegistry sessions = new SessionRegistry();
+
+    @SuppressWarnings("unchecked")
+    private OfflineDrainer drainer(RedisMessaging redis) {
+        ObjectProvider<RedisMessaging> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(redis);
+        return new OfflineDrainer(provider, sessions, 2, 0, 1);
+    }
+
+    @Test
+    void start_StreamsBacklogChunkByChunkUntilEmpty() {
+        RedisMessaging redis = mock(RedisMessaging.class);
+        when(redis.popOfflineMessages(7L, 2)).thenReturn(List.of("a", "b"), List.of("c"), List.of());
+        OutboundSession session = mock(OutboundSession.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.enqueue(any(), any())).thenAnswer(inv -> {
+            inv.<OutboundSession.Delivery>getArgument(1).completed(true);
+            return true;
+        });
+        drainer = drainer(redis);
+
+        sessions.register(7L, session);
+        drainer.start(7L);
+
+        verify(redis, timeout(5000).times(3)).popOfflineMessages(7L, 2);
+        verify(session, times(3)).enqueue(any(TextMessage.class), any());
+        verify(redis, never()).requeueOfflineMessages(anyLong(), anyList());
+    }
+
+    @Test
+    void start_RequeuesFramesThatWereNotDelivered() {
+        RedisMessaging redis = mock(RedisMessaging.class);
+        when(redis.popOfflineMessages(7L, 2)).thenReturn(List.of("a", "b"));
+        OutboundSession session = mock(OutboundSession.class);
+        when(session.isOpen()).thenReturn(true, false);
+        when(session.enqueue(any(), any())).thenAnswer(inv -> {
+            TextMessage msg = inv.getArgument(0);
+            inv.<OutboundSession.Delivery>getArgument(1).completed(msg.getPayload().equals("a"));
+            return true;
+        });
+        drainer = drainer(redis);
+
+        sessions.register(7L, session);
+        drainer.start(7L);
+
+        verify(redis, timeout(5000)).requeueOfflineMessages(7L, List.of("b"));
+        verify(redis, times(1)).popOfflineMessages(7L, 2);
+    }
+
+    @Test
+    void start_SendsOverflowMarkerBeforeBacklog() {
+        RedisMessaging redis = mock(RedisMessaging.class);
+        when(redis.takeOfflineOverflow(7L)).thenReturn(42L);
+        when(redis.popOfflineMessages(7L, 2)).thenReturn(List.of());
+        OutboundSession session = mock(OutboundSession.class);
+        when(session.isOpen()).thenReturn(true);
+        drainer = drainer(redis);
+
+        sessions.register(7L, session);
+        drainer.start(7L);
+
+        verify(redis, timeout(5000)).popOfflineMessages(7L, 2);
+        verify(session).enqueue(new TextMessage("{\"type\":\"offline_overflow\",\"data\":{\"dropped\":42}}"));
+    }
+
+    @Test
+    void start_SendsEveryChunkToAllDevices() {
+        RedisMessaging redis = mock(RedisMessaging.class);
+        when(redis.popOfflineMessages(7L, 2)).thenReturn(List.of("a", "b"), List.of());
+        OutboundSession phone = mock(OutboundSession.class);
+        OutboundSession laptop = mock(OutboundSession.class);
+        for (OutboundSession device : List.of(phone, laptop)) {
+            when(device.isOpen()).thenReturn(true);
+            when(device.enqueue(any(), any())).thenAnswer(inv -> {
+                inv.<OutboundSession.Delivery>getArgument(1).completed(true);
+                return true;
+            });
+            sessions.register(7L, device);
+        }
+        drainer = drainer(redis);
+
+        drainer.start(7L);
+        drainer.start(7L);
+
+        // A second drain, if the first had already finished, only finds the list empty
+        verify(redis, timeout(5000).atLeast(2)).popOfflineMessages(7L, 2);
+        verify(phone, times(2)).enqueue(any(TextMessage.class), any());
+        verify(laptop, times(2)).enqueue(any(TextMessage.class), any());
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.jialechatweb.ws;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OnlineCountPublisherTest {
+
+    @SuppressWarnings("unchecked")
+    private OnlineCountPublisher publisher(SessionRegistry sessions, RedisMessaging redis) {
+        ObjectProvider<RedisMessaging> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(redis);
+        return new OnlineCountPublisher(sessions, provider, 15_000);
+    }
+
+    @Test
+    void publish_SendsOnlyWhenCountChanges() {
+        SessionRegistry sessions = new SessionRegistry();
+        OutboundSession a = mock(OutboundSession.class);
+        sessions.register(1L, a);
+        OnlineCountPublisher publisher = publisher(sessions, null);
+
+        publisher.publish();
+        publisher.publish();
+        sessions.register(2L, mock(OutboundSession.class));
+        publisher.publish();
+
+        ArgumentCaptor<RoutedFrame> sent = ArgumentCaptor.forClass(RoutedFrame.class);
+        verify(a, times(2)).enqueue(sent.capture());
+        assertTrue(sent.getAllValues().get(0).json().contains("\"count\":1"));
+        assertTrue(sent.getAllValues().get(1).json().contains("\"count\":2"));
+    }
+
+    @Test
+    void publish_UsesClusterTotalAndKeepsItWhenRedisFails() {
+        SessionRegistry sessions = new SessionRegistry();
+        OutboundSession a = mock(OutboundSession.class);
+        sessions.register(1L, a);
+        RedisMessaging redis = mock(RedisMessaging.class);
+        when(redis.reportOnlineUsers(eq(1), anyLong()))
+                .thenReturn(40L)
+                .thenThrow(new RuntimeException("redis down"));
+        OnlineCountPublisher publisher = publisher(sessions, redis);
+
+        publisher.publish();
+        publisher.publish();
+
+        assertEquals(40L, publisher.lastCount());
+        verify(a, times(1)).enqueue(any(RoutedFrame.class));
+    }
+}
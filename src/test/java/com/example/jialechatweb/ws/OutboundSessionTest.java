@@ -0,0 +1,165 @@
+package com.example.jialechatweb.ws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OutboundSessionTest {
+
+    private OutboundDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void enqueue_DeliversInOrderOffCallerThread() throws Exception {
+        dispatcher = new OutboundDispatcher(10, "drop-newest", 10_000, 1, 0, 64);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        CountDownLatch sent = new CountDownLatch(3);
+        doAnswer(inv -> {
+            sent.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+
+        OutboundSession outbound = dispatcher.open(session);
+        outbound.enqueue(new TextMessage("1"));
+        outbound.enqueue(new TextMessage("2"));
+        outbound.enqueue(new TextMessage("3"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        var order = inOrder(session);
+        order.verify(session).sendMessage(new TextMessage("1"));
+        order.verify(session).sendMessage(new TextMessage("2"));
+        order.verify(session).sendMessage(new TextMessage("3"));
+    }
+
+    @Test
+    void slowConsumer_DropsNewestPastHighWaterMark() throws Exception {
+        dispatcher = new OutboundDispatcher(2, "drop-newest", 10_000, 1, 0, 64);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            writerBlocked.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+
+        OutboundSession outbound = dispatcher.open(session);
+        assertTrue(outbound.enqueue(new TextMessage("in-flight")));
+        assertTrue(writerBlocked.await(5, TimeUnit.SECONDS));
+        assertTrue(outbound.enqueue(new TextMessage("a")));
+        assertTrue(outbound.enqueue(new TextMessage("b")));
+        assertFalse(outbound.enqueue(new TextMessage("c")));
+
+        assertEquals(2, outbound.depth());
+        assertEquals(1L, dispatcher.stats().get("dropped"));
+        release.countDown();
+    }
+
+    @Test
+    void closePolicy_ClosesSessionWhenQueueOverflows() throws Exception {
+        dispatcher = new OutboundDispatcher(1, "close", 10_000, 1, 0, 64);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            writerBlocked.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+
+        OutboundSession outbound = dispatcher.open(session);
+        outbound.enqueue(new TextMessage("in-flight"));
+        assertTrue(writerBlocked.await(5, TimeUnit.SECONDS));
+        outbound.enqueue(new TextMessage("a"));
+        assertFalse(outbound.enqueue(new TextMessage("b")));
+
+        // Marked closed at once, but the socket is closed on the writer pool, not the caller
+        assertFalse(outbound.isOpen());
+        assertEquals(0, outbound.depth());
+        verify(session, never()).close(any());
+        release.countDown();
+        verify(session, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void delivery_ReportsSentAndDiscardedFrames() throws Exception {
+        dispatcher = new OutboundDispatcher(10, "drop-newest", 10_000, 1, 0, 64);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            writerBlocked.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+        CountDownLatch firstSent = new CountDownLatch(1);
+        AtomicBoolean queuedDiscarded = new AtomicBoolean();
+
+        OutboundSession outbound = dispatcher.open(session);
+        outbound.enqueue(new TextMessage("in-flight"), ok -> {
+            if (ok) firstSent.countDown();
+        });
+        assertTrue(writerBlocked.await(5, TimeUnit.SECONDS));
+        outbound.enqueue(new TextMessage("queued"), ok -> queuedDiscarded.set(!ok));
+        outbound.close();
+        release.countDown();
+
+        assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+        assertTrue(queuedDiscarded.get());
+    }
+
+    @Test
+    void batching_CoalescesFramesThatFollowAWrite() throws Exception {
+        dispatcher = new OutboundDispatcher(10, "drop-newest", 10_000, 1, 200, 64);
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        attributes.put(OutboundSession.BATCH_ATTRIBUTE, true);
+        when(session.getAttributes()).thenReturn(attributes);
+        var written = new CopyOnWriteArrayList<WebSocketMessage<?>>();
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(2);
+        doAnswer(inv -> {
+            written.add(inv.getArgument(0));
+            first.countDown();
+            second.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+
+        OutboundSession outbound = dispatcher.open(session);
+        outbound.enqueue(new TextMessage("{\"n\":1}"));
+        // An idle session is written straight away
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        outbound.enqueue(new TextMessage("{\"n\":2}"));
+        outbound.enqueue(new TextMessage("{\"n\":3}"));
+
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertEquals(2, written.size());
+        assertEquals("{\"n\":1}", written.get(0).getPayload());
+        assertEquals("{\"type\":\"batch\",\"data\":[{\"n\":2},{\"n\":3}]}", written.get(1).getPayload());
+    }
+}
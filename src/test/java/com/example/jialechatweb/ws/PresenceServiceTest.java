@@ -0,0 +1,63 @@
+package com.example.jialechatweb.ws;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.socket.PingMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PresenceServiceTest {
+
+    @SuppressWarnings("unchecked")
+    private PresenceService service(SessionRegistry sessions, RedisMessaging redis) {
+        ObjectProvider<RedisMessaging> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(redis);
+        return new PresenceService(sessions, provider, 1000);
+    }
+
+    @Test
+    void heartbeat_PingsLiveSessionsExpiresSilentOnesAndRefreshesInOneCall() {
+        SessionRegistry sessions = new SessionRegistry();
+        OutboundSession live = mock(OutboundSession.class);
+        OutboundSession silent = mock(OutboundSession.class);
+        when(live.idleNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(10));
+        when(silent.idleNanos()).thenReturn(TimeUnit.SECONDS.toNanos(5));
+        sessions.register(1L, live);
+        sessions.register(2L, silent);
+        RedisMessaging redis = mock(RedisMessaging.class);
+
+        service(sessions, redis).heartbeat();
+
+        verify(live).enqueue(any(PingMessage.class));
+        verify(live, never()).expire();
+        verify(silent).expire();
+        verify(redis).refreshOnline(eq(List.of(1L)), anyInt());
+    }
+
+    @Test
+    void heartbeat_ExpiryThatUnregistersOnTheSameThreadDoesNotDeadlock() {
+        SessionRegistry sessions = new SessionRegistry();
+        OutboundSession silent = mock(OutboundSession.class);
+        when(silent.idleNanos()).thenReturn(TimeUnit.SECONDS.toNanos(5));
+        // What Tomcat does when a session is closed: onClose runs synchronously and unregisters
+        doAnswer(inv -> sessions.unregister(2L, silent)).when(silent).expire();
+        sessions.register(2L, silent);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> service(sessions, null).heartbeat());
+        assertFalse(sessions.isConnected(2L));
+    }
+
+    @Test
+    void online_FallsBackToLocalSessionsWithoutRedis() {
+        SessionRegistry sessions = new SessionRegistry();
+        sessions.register(3L, mock(OutboundSession.class));
+
+        assertEquals(List.of(3L), service(sessions, null).online(List.of(3L, 4L)));
+    }
+}
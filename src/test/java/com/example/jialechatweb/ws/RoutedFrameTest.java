@@ -0,0 +1,48 @@
+package com.example.jialechatweb.ws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutedFrameTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void wireRoundTrip_KeepsRoutingAndBody() throws Exception {
+        ChatWebSocketHandler.Event event = new ChatWebSocketHandler.Event("message", Map.of(
+                "senderId", "12",
+                "receiverId", "34",
+                "content", "你好|\nworld"
+        ));
+        RoutedFrame frame = RoutedFrame.of(event, mapper);
+
+        RoutedFrame decoded = RoutedFrame.fromWire(frame.toWire().getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(decoded);
+        assertEquals("message", decoded.type());
+        assertEquals(12L, decoded.senderId());
+        assertEquals(34L, decoded.receiverId());
+        assertNull(decoded.groupId());
+        assertEquals(frame.json(), decoded.json());
+        assertSame(decoded.textMessage(), decoded.textMessage());
+    }
+
+    @Test
+    void typingEvent_RoutesOnFromAndTo() throws Exception {
+        RoutedFrame frame = RoutedFrame.of(new ChatWebSocketHandler.Event("typing", Map.of("from", "5", "to", "6")), mapper);
+
+        assertEquals(5L, frame.senderId());
+        assertEquals(6L, frame.receiverId());
+    }
+
+    @Test
+    void fromWire_RejectsMalformedInput() {
+        assertNull(RoutedFrame.fromWire("{\"type\":\"message\"}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(RoutedFrame.fromWire("message|x||\n{}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.jialechatweb.ws;
+
+import com.example.jialechatweb.ratelimit.RateLimiter;
+import com.example.jialechatweb.ratelimit.RedisRateLimitStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SendRateLimiterTest {
+
+    @SuppressWarnings("unchecked")
+    private static RateLimiter localRateLimiter() {
+        ObjectProvider<RedisRateLimitStore> provider = mock(ObjectProvider.class);
+        return new RateLimiter(provider, true);
+    }
+
+    @Test
+    void acquireUser_AllowsBurstThenRefusesWithRetryHint() {
+        SendRateLimiter limiter = new SendRateLimiter(localRateLimiter(), 1, 3, 5, 15, false);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquireUser(7L));
+        }
+        long wait = limiter.acquireUser(7L);
+        assertTrue(wait > 0 && wait <= 1000, "retry hint " + wait);
+        assertEquals(0, limiter.acquireUser(8L));
+        assertEquals(1, limiter.rejected());
+    }
+
+    @Test
+    void acquireConversation_IsPerTarget() {
+        SendRateLimiter limiter = new SendRateLimiter(localRateLimiter(), 10, 30, 1, 1, false);
+
+        assertEquals(0, limiter.acquireConversation(7L, 8L));
+        assertTrue(limiter.acquireConversation(7L, 8L) > 0);
+        assertEquals(0, limiter.acquireConversation(7L, -3L));
+        assertEquals(0, limiter.acquireConversation(9L, 8L));
+    }
+}
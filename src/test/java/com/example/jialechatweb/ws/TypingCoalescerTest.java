@@ -0,0 +1,64 @@
+package com.example.jialechatweb.ws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypingCoalescerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final TypingCoalescer.Target ALICE_TO_BOB = new TypingCoalescer.Target(1L, false, 2L);
+
+    private final List<TypingCoalescer.Signal> emitted = new ArrayList<>();
+
+    private TypingCoalescer coalescer() {
+        TypingCoalescer c = new TypingCoalescer(5000, 4000);
+        c.setEmitter((target, signal) -> emitted.add(signal));
+        return c;
+    }
+
+    @Test
+    void keystrokes_CollapseIntoOneStartAndOneStop() {
+        TypingCoalescer c = coalescer();
+
+        for (int i = 0; i < 20; i++) {
+            c.input(ALICE_TO_BOB, i * 100 * MS);
+        }
+        c.sweep(2000 * MS);
+        c.sweep(6000 * MS);
+
+        assertEquals(List.of(TypingCoalescer.Signal.START, TypingCoalescer.Signal.STOP), emitted);
+    }
+
+    @Test
+    void restartWithinWindow_IsDeferredUntilWindowEnds() {
+        TypingCoalescer c = coalescer();
+
+        c.input(ALICE_TO_BOB, 0);
+        c.stop(ALICE_TO_BOB);
+        c.input(ALICE_TO_BOB, 1000 * MS);
+        c.sweep(2000 * MS);
+        assertEquals(List.of(TypingCoalescer.Signal.START, TypingCoalescer.Signal.STOP), emitted);
+
+        c.input(ALICE_TO_BOB, 4500 * MS);
+        c.sweep(5000 * MS);
+        assertEquals(TypingCoalescer.Signal.START, emitted.get(2));
+        assertEquals(3, emitted.size());
+    }
+
+    @Test
+    void messageSent_EndsTypingSilentlyAndEntryIsDropped() {
+        TypingCoalescer c = coalescer();
+
+        c.input(ALICE_TO_BOB, 0);
+        c.messageSent(ALICE_TO_BOB);
+        c.sweep(10_000 * MS);
+
+        assertEquals(List.of(TypingCoalescer.Signal.START), emitted);
+        assertEquals(0, c.tracked());
+    }
+}
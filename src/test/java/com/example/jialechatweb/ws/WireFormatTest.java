@@ -0,0 +1,60 @@
+package com.example.jialechatweb.ws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireFormatTest {
+
+    @Test
+    void toCbor_KeepsStructureAndTurnsStringIdsIntoIntegers() throws Exception {
+        String json = "{\"type\":\"message\",\"data\":{\"id\":\"1783012345678901234\",\"senderId\":\"42\","
+                + "\"conversationId\":\"9876543210\",\"content\":\"123\",\"tempId\":\"1712345678901\"}}";
+
+        BinaryMessage cbor = WireFormat.toCbor(json);
+        JsonNode back = WireFormat.readCbor(cbor.getPayload());
+
+        assertTrue(cbor.getPayloadLength() < json.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals("message", back.get("type").asText());
+        JsonNode data = back.get("data");
+        assertTrue(data.get("id").isIntegralNumber());
+        assertEquals(1783012345678901234L, data.get("id").asLong());
+        assertEquals(42L, data.get("senderId").asLong());
+        // Content is never touched, and the client's tempId comes back exactly as sent
+        assertTrue(data.get("content").isTextual());
+        assertTrue(data.get("tempId").isTextual());
+        assertEquals("1712345678901", data.get("tempId").asText());
+    }
+
+    @Test
+    void fromParam_DefaultsToJson() {
+        assertEquals(WireFormat.CBOR, WireFormat.fromParam("CBOR"));
+        assertEquals(WireFormat.JSON, WireFormat.fromParam(null));
+        assertEquals(WireFormat.JSON, WireFormat.fromParam("msgpack"));
+        assertEquals(WireFormat.JSON, WireFormat.of(Map.of()));
+    }
+
+    @Test
+    void batch_CborFrameDecodesAsArrayOfItems() throws Exception {
+        var items = new ArrayList<WebSocketMessage<?>>();
+        for (int i = 0; i < 30; i++) {
+            items.add(WireFormat.toCbor("{\"type\":\"message\",\"data\":{\"id\":\"" + i + "\"}}"));
+        }
+
+        JsonNode batch = WireFormat.readCbor(((BinaryMessage) WireFormat.CBOR.batch(items)).getPayload());
+
+        assertEquals("batch", batch.get("type").asText());
+        assertEquals(30, batch.get("data").size());
+        assertEquals(29L, batch.get("data").get(29).get("data").get("id").asLong());
+        assertFalse(WireFormat.CBOR.batchable(new TextMessage("x")));
+        assertTrue(WireFormat.JSON.batchable(new TextMessage("x")));
+    }
+}